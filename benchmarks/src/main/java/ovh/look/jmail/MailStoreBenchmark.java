@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Header lookups against stores of 1k, 100k and 1M messages: a single
+ * message file, the cached folder, a page of the folder and the folder
+ * from its header index.
+ * <p>
+ * The stores are written once under java.io.tmpdir and reused, the 1M
+ * store takes a few minutes the first time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MailStoreBenchmark {
+
+    static final String FOLDER = "bench";
+
+    @Param({"1000", "100000", "1000000"})
+    int messages;
+
+    MailStore store;
+    int next;
+
+    @Setup
+    public void setup() throws IOException {
+        Path root = MailboxGenerator.cached(FOLDER, messages);
+        store = MailboxGenerator.open(root);
+        // Writes the header index on the first run and fills the cache
+        store.getMessages(FOLDER);
+    }
+
+    private int nextMessage() {
+        next = next == messages ? 1 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public MailStore.MessageInfo getMessageInfo() {
+        return store.getMessageInfo(FOLDER, "msg" + nextMessage() + ".txt");
+    }
+
+    @Benchmark
+    public MailStore.MessageInfo[] getMessagesCached() {
+        return store.getMessages(FOLDER);
+    }
+
+    @Benchmark
+    public MailStore.MessageInfo[] getMessagesPage() {
+        return store.getMessages(FOLDER, Math.max(0, nextMessage() - 256), 256);
+    }
+
+    @Benchmark
+    public MailStore.MessageInfo[] loadMessagesFromIndex() {
+        return store.loadMessages(FOLDER);
+    }
+}
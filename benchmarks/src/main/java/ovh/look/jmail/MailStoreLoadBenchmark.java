@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sequential versus virtual thread loading of a folder from its message
+ * files, bypassing the folder cache and the header index.
+ * <p>
+ * On a local disk the files are mostly in the page cache, so the gap is
+ * much wider on network home directories where every open waits on I/O.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MailStoreLoadBenchmark {
+
+    private static final String FOLDER = "bench";
+
+    @Param({"50000"})
+    int messages;
+
+    // 1 is the sequential loop
+    @Param({"1", "4", "16", "64"})
+    int parallelism;
+
+    Path root;
+    MailStore store;
+
+    @Setup
+    public void setup() throws IOException {
+        root = MailboxGenerator.create(FOLDER, messages);
+        store = MailboxGenerator.open(root);
+        store.setLoadParallelism(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        MailboxGenerator.delete(root);
+    }
+
+    @Benchmark
+    public MailStore.MessageInfo[] readMessages() {
+        return store.readMessages(FOLDER);
+    }
+}
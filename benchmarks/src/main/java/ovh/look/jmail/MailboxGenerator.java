@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Writes mail stores in the format MailStore reads: a msg-list.txt per
+ * folder, a msgN.txt properties file per message, its msgN-body.html and
+ * attachment files next to them.
+ * <p>
+ * The first folder is the inbox, the others are named folder1, folder2
+ * and so on; with a nesting greater than one every folder after the first
+ * few is created inside an earlier one. Attachments are drawn from a
+ * small pool of files per folder, except URL attachments which point to
+ * the web. Words and addresses come from a {@link Vocabulary}. Generation
+ * is deterministic for a given seed.
+ * <p>
+ * The static methods write the single folder stores the JMH benchmarks
+ * use, either throw-away or shared by all runs.
+ * <pre>
+ *   java -cp target/benchmarks.jar ovh.look.jmail.MailboxGenerator DIR \
+ *        folders=8 messages=5000 bodyBytes=4096 attachments=0.2 nesting=2
+ * </pre>
+ */
+public class MailboxGenerator {
+
+    /** Attachment types in the order of the weights given to {@link #mix}. */
+    static final String[] TYPES = { "image", "text", "web", "other" };
+
+    private static final int POOL_SIZE = 8;
+
+    private int folders = 1;
+    private int messages = 1000;
+    private int bodyBytes = 2048;
+    private boolean sharedBody;
+    private double attachmentRate = 0.1;
+    private int nesting = 1;
+    private double[] mix = { 0.4, 0.3, 0.2, 0.1 };
+    private long seed = 42;
+    private String firstFolder = "inbox";
+
+    public MailboxGenerator folders(int folders) {
+        this.folders = folders;
+        return this;
+    }
+
+    public MailboxGenerator messages(int messagesPerFolder) {
+        this.messages = messagesPerFolder;
+        return this;
+    }
+
+    public MailboxGenerator bodyBytes(int bodyBytes) {
+        this.bodyBytes = bodyBytes;
+        return this;
+    }
+
+    // One body.html per folder shared by all messages, halves the file count
+    public MailboxGenerator sharedBody(boolean sharedBody) {
+        this.sharedBody = sharedBody;
+        return this;
+    }
+
+    // Probability that a message has attachments, one to three of them
+    public MailboxGenerator attachments(double rate) {
+        this.attachmentRate = rate;
+        return this;
+    }
+
+    // Relative weights of image, text, web and other attachments
+    public MailboxGenerator mix(double image, double text, double web, double other) {
+        this.mix = new double[] { image, text, web, other };
+        return this;
+    }
+
+    public MailboxGenerator nesting(int levels) {
+        this.nesting = levels;
+        return this;
+    }
+
+    public MailboxGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    public MailboxGenerator firstFolder(String name) {
+        this.firstFolder = name;
+        return this;
+    }
+
+    /**
+     * Writes the store under root and returns the relative folder paths.
+     */
+    public String[] write(Path root) throws IOException {
+        Random r = new Random(seed);
+        Vocabulary vocabulary = new Vocabulary(20_000, 2_000, 300, seed);
+        String[] paths = new String[folders];
+        for (int f = 0; f < folders; f++) {
+            String name = f == 0 ? firstFolder : "folder" + f;
+            // Folders past the first level hang below one of the top ones
+            int parent = nesting > 1 && f > folders / nesting ? r.nextInt(1, Math.max(2, folders / nesting + 1)) : -1;
+            paths[f] = parent > 0 && parent < f ? paths[parent] + "/" + name : name;
+            writeFolder(Files.createDirectories(root.resolve(paths[f])), vocabulary, r);
+        }
+        return paths;
+    }
+
+    /**
+     * Writes the store under root unless an earlier call completed it
+     * already, and returns root. Large stores take minutes to write.
+     */
+    public Path writeOnce(Path root) throws IOException {
+        Path complete = root.resolve(".complete");
+        if (Files.exists(complete)) {
+            return root;
+        }
+        if (Files.exists(root)) {
+            delete(root);
+        }
+        write(root);
+        Files.createFile(complete);
+        return root;
+    }
+
+    private void writeFolder(Path dir, Vocabulary vocabulary, Random r) throws IOException {
+        String[][] pool = writeAttachmentPool(dir, vocabulary, r);
+        if (sharedBody) {
+            Files.writeString(dir.resolve("body.html"), body(vocabulary, r));
+        }
+        try (BufferedWriter list = Files.newBufferedWriter(dir.resolve("msg-list.txt"))) {
+            for (int i = 1; i <= messages; i++) {
+                String name = "msg" + i + ".txt";
+                list.write(name);
+                list.newLine();
+                String body = sharedBody ? "body.html" : "msg" + i + "-body.html";
+                if (!sharedBody) {
+                    Files.writeString(dir.resolve(body), body(vocabulary, r));
+                }
+                StringBuilder sb = new StringBuilder(256)
+                        .append("from=").append(vocabulary.address(r)).append('\n')
+                        .append("to=").append(vocabulary.address(r)).append('\n')
+                        .append("cc=openjfx-dev@openjdk.org, client-libs-dev@openjdk.org\n")
+                        .append("subject=").append(subject(i, vocabulary, r)).append('\n')
+                        .append("body=").append(body).append('\n')
+                        .append("datetime=").append(1 + i % 12).append('/').append(1 + i % 28)
+                        .append("/22 ").append(1 + i % 12).append(':')
+                        .append(String.format("%02d", i % 60)).append(i % 2 == 0 ? " AM\n" : " PM\n");
+                if (r.nextDouble() < attachmentRate) {
+                    int n = 1 + r.nextInt(3);
+                    for (int a = 1; a <= n; a++) {
+                        int type = pickType(r);
+                        String file = type == 2 ? "https://openjdk.org/projects/jdk/" + (17 + r.nextInt(5)) + "/"
+                                                : pool[type][r.nextInt(POOL_SIZE)];
+                        sb.append("type-attachment").append(a).append('=').append(TYPES[type]).append('\n')
+                          .append("attachment").append(a).append('=').append(file).append('\n');
+                    }
+                }
+                Files.writeString(dir.resolve(name), sb);
+            }
+        }
+    }
+
+    private int pickType(Random r) {
+        double total = 0;
+        for (double w : mix) {
+            total += w;
+        }
+        double x = r.nextDouble() * total;
+        for (int t = 0; t < mix.length; t++) {
+            x -= mix[t];
+            if (x < 0) {
+                return t;
+            }
+        }
+        return mix.length - 1;
+    }
+
+    private String[][] writeAttachmentPool(Path dir, Vocabulary vocabulary, Random r) throws IOException {
+        String[][] pool = new String[TYPES.length][POOL_SIZE];
+        if (attachmentRate <= 0) {
+            return pool;
+        }
+        for (int i = 0; i < POOL_SIZE; i++) {
+            pool[0][i] = "image" + i + ".png";
+            int w = 200 + r.nextInt(1800);
+            int h = 200 + r.nextInt(1200);
+            BufferedImage bi = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = bi.createGraphics();
+            g.setPaint(new GradientPaint(0, 0, new Color(r.nextInt(0xFFFFFF)),
+                                         w, h, new Color(r.nextInt(0xFFFFFF))));
+            g.fillRect(0, 0, w, h);
+            g.dispose();
+            ImageIO.write(bi, "png", dir.resolve(pool[0][i]).toFile());
+
+            pool[1][i] = "notes" + i + ".txt";
+            Files.writeString(dir.resolve(pool[1][i]), vocabulary.text(r, 1000 + r.nextInt(20000)));
+
+            pool[3][i] = "data" + i + ".bin";
+            byte[] data = new byte[1024 + r.nextInt(64 * 1024)];
+            r.nextBytes(data);
+            Files.write(dir.resolve(pool[3][i]), data);
+        }
+        return pool;
+    }
+
+    private static String subject(int i, Vocabulary vocabulary, Random r) {
+        return (i % 3 == 0 ? "Re: " : "") + vocabulary.words(r, 2 + r.nextInt(6));
+    }
+
+    private String body(Vocabulary vocabulary, Random r) {
+        return "<html><body><p>" + vocabulary.text(r, bodyBytes) + "</p></body></html>";
+    }
+
+    /**
+     * Applies key=value options such as messages=5000, as given on the
+     * command line.
+     */
+    public MailboxGenerator options(List<String> options) {
+        for (String option : options) {
+            String[] kv = option.split("=", 2);
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Expected key=value: " + option);
+            }
+            switch (kv[0]) {
+                case "folders" -> folders(Integer.parseInt(kv[1]));
+                case "messages" -> messages(Integer.parseInt(kv[1]));
+                case "bodyBytes" -> bodyBytes(Integer.parseInt(kv[1]));
+                case "attachments" -> attachments(Double.parseDouble(kv[1]));
+                case "nesting" -> nesting(Integer.parseInt(kv[1]));
+                case "seed" -> seed(Long.parseLong(kv[1]));
+                case "sharedBody" -> sharedBody(Boolean.parseBoolean(kv[1]));
+                default -> throw new IllegalArgumentException("Unknown option " + option);
+            }
+        }
+        return this;
+    }
+
+    int getFolders() {
+        return folders;
+    }
+
+    int getMessages() {
+        return messages;
+    }
+
+    // A store with one folder of messages sharing one body and without
+    // attachments, as the JMH benchmarks use
+    private static MailboxGenerator singleFolder(String folder, int messages) {
+        return new MailboxGenerator().firstFolder(folder).messages(messages)
+                .sharedBody(true).attachments(0);
+    }
+
+    /**
+     * Writes a throw-away store with one folder of generated messages.
+     */
+    public static Path create(String folder, int messages) throws IOException {
+        Path root = Files.createTempDirectory("jmail-bench");
+        singleFolder(folder, messages).write(root);
+        return root;
+    }
+
+    /**
+     * Returns a store like {@link #create} under java.io.tmpdir, shared by
+     * all forks and runs, writing it only if no earlier run completed it.
+     */
+    public static Path cached(String folder, int messages) throws IOException {
+        return singleFolder(folder, messages).writeOnce(
+                Path.of(System.getProperty("java.io.tmpdir"), "jmail-bench-" + folder + "-" + messages));
+    }
+
+    public static void delete(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+
+    // Points MailStore at the store; must run before the first
+    // MailStore.getMailStore() call of the JVM.
+    public static MailStore open(Path root) {
+        System.setProperty("mail_store", root.toString());
+        return MailStore.getMailStore();
+    }
+
+    static final String OPTIONS = "[folders=N] [messages=N] [bodyBytes=N] [attachments=RATE] " +
+                                  "[nesting=N] [seed=N] [sharedBody=true]";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: MailboxGenerator DIR " + OPTIONS);
+            System.exit(2);
+        }
+        MailboxGenerator g = new MailboxGenerator().options(List.of(args).subList(1, args.length));
+        long start = System.nanoTime();
+        String[] folders = g.write(Path.of(args[0]));
+        System.out.printf("Wrote %d folders of %d messages to %s in %d ms%n", folders.length,
+                          g.messages, args[0], (System.nanoTime() - start) / 1_000_000);
+    }
+}
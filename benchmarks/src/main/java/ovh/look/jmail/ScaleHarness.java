@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Headless check of store latencies against budgets, meant to run in a
+ * fresh JVM so that the cold paths are really cold.
+ * <p>
+ * Writes a store with {@link MailboxGenerator} (the generator options are
+ * accepted on the command line) to java.io.tmpdir and points the store at
+ * it. When MAIL_STORE is set, a temporary copy of that store is used
+ * instead, as the harness deletes and writes header indexes and must not
+ * touch a real store. Then times
+ * <ul>
+ *   <li>open: the first MailStore.getMailStore(), which starts watching the store</li>
+ *   <li>folders: listing the mail folders</li>
+ *   <li>load.files: loading the inbox from its message files, without header index</li>
+ *   <li>load.index: loading another folder from its header index</li>
+ *   <li>load.page: the first 256 headers of a folder that is not cached</li>
+ *   <li>load.message: the headers of a single message</li>
+ * </ul>
+ * Operations that can be repeated are run several times and judged by the
+ * median. Budgets are in milliseconds and can be changed with
+ * jmail.slo.&lt;name&gt; system properties; the exit status is 1 if any is
+ * exceeded.
+ * <pre>
+ *   java -cp target/benchmarks.jar ovh.look.jmail.ScaleHarness folders=8 messages=20000 \
+ *        -Djmail.slo.load.files=8000
+ * </pre>
+ */
+public class ScaleHarness {
+
+    private static final int REPEAT = Integer.getInteger("jmail.slo.repeat", 5);
+
+    private record Result(String name, long millis, long budget) {
+        boolean ok() {
+            return millis <= budget;
+        }
+    }
+
+    private final List<Result> results = new ArrayList<>();
+
+    private <T> T once(String name, long defaultBudget, Supplier<T> op) {
+        long start = System.nanoTime();
+        T value = op.get();
+        record(name, System.nanoTime() - start, defaultBudget);
+        return value;
+    }
+
+    private void median(String name, long defaultBudget, Runnable op) {
+        long[] nanos = new long[REPEAT];
+        for (int i = 0; i < REPEAT; i++) {
+            long start = System.nanoTime();
+            op.run();
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        record(name, nanos[REPEAT / 2], defaultBudget);
+    }
+
+    private void record(String name, long nanos, long defaultBudget) {
+        results.add(new Result(name, TimeUnit.NANOSECONDS.toMillis(nanos),
+                               Long.getLong("jmail.slo." + name, defaultBudget)));
+    }
+
+    boolean run() {
+        MailStore store = once("open", 1000, MailStore::getMailStore);
+        List<String> folders = once("folders", 500, store::getMailFolders);
+        String inbox = folders.contains("inbox") ? "inbox" : folders.get(0);
+        String other = folders.stream().filter(f -> !f.equals(inbox)).findFirst().orElse(inbox);
+        String inboxDir = MailStore.getMailStoreDir() + File.separatorChar + inbox;
+        String otherDir = MailStore.getMailStoreDir() + File.separatorChar + other;
+
+        // Without index the inbox is read file by file, and indexed after
+        deleteIndex(inboxDir);
+        MailStore.MessageInfo[] infos = once("load.files", 5000, () -> store.loadMessages(inbox));
+
+        if (MailIndex.open(otherDir) == null) {
+            store.loadMessages(other);
+        }
+        median("load.index", 500, () -> store.loadMessages(other));
+        median("load.page", 100, () -> store.getMessages(other, 0, 256));
+        String msgFile = infos[infos.length / 2].getFileName();
+        median("load.message", 20, () -> store.getMessage(inbox, msgFile));
+
+        System.out.printf("%s: %d folders, %d messages in %s%n", MailStore.getMailStoreDir(),
+                          folders.size(), infos.length, inbox);
+        boolean ok = true;
+        for (Result r : results) {
+            System.out.printf("  %-14s %6d ms  budget %6d ms  %s%n", r.name(), r.millis(), r.budget(),
+                              r.ok() ? "ok" : "EXCEEDED");
+            ok &= r.ok();
+        }
+        return ok;
+    }
+
+    private static void deleteIndex(String folderPath) {
+        try {
+            Files.deleteIfExists(Path.of(folderPath, MailIndex.INDEX_FILE));
+        } catch (IOException e) {
+            System.err.println("Unable to delete header index of " + folderPath + ": " + e);
+        }
+    }
+
+    // Writes the store once per set of generator options
+    private static Path generate(List<String> options) throws IOException {
+        MailboxGenerator g = new MailboxGenerator().folders(8).messages(5000).options(options);
+        Path root = Path.of(System.getProperty("java.io.tmpdir"),
+                            "jmail-scale-" + (options.isEmpty() ? "default" : String.join("-", options).replace('=', '_')));
+        long start = System.nanoTime();
+        if (!Files.exists(root.resolve(".complete"))) {
+            g.writeOnce(root);
+            System.out.printf("Generated %d folders of %d messages in %d ms%n", g.getFolders(),
+                              g.getMessages(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        return root;
+    }
+
+    private static Path copy(Path store) throws IOException {
+        long start = System.nanoTime();
+        Path copy = Files.createTempDirectory("jmail-scale-copy");
+        try (var paths = Files.walk(store)) {
+            for (Path p : paths.toList()) {
+                Path target = copy.resolve(store.relativize(p).toString());
+                if (Files.isDirectory(p)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(p, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        }
+        System.out.printf("Copied %s to %s in %d ms%n", store, copy,
+                          TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return copy;
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        System.setProperty("jmail.startup.quiet", "true");
+        String mailStore = System.getenv("MAIL_STORE");
+        Path copy = null;
+        if (mailStore == null) {
+            System.setProperty("mail_store", generate(List.of(args)).toString());
+        } else {
+            if (args.length > 0) {
+                System.err.println("MAIL_STORE is set, ignoring generator options " + List.of(args));
+            }
+            copy = copy(Path.of(mailStore));
+            System.setProperty("mail_store", copy.toString());
+        }
+        boolean ok;
+        try {
+            ok = new ScaleHarness().run();
+        } finally {
+            if (copy != null) {
+                MailboxGenerator.delete(copy);
+            }
+        }
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ovh.look.jmail.search.TrigramIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Substring and fuzzy header queries through the trigram index against a
+ * linear scan over the same lower cased header text.
+ * <p>
+ * Headers are drawn from a {@link Vocabulary} of 50000 words, 20000 people
+ * and 2000 domains. The queries are a rare word, the most common domain
+ * and a fairly common word with one letter missing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class TrigramIndexBenchmark {
+
+    @Param({"100000"})
+    int messages;
+
+    @Param({"rare", "common", "misspelled"})
+    String kind;
+
+    TrigramIndex index;
+    MailStore.MessageInfo[] infos;
+    String[] texts;
+    String query;
+
+    @Setup
+    public void setup() {
+        Vocabulary vocabulary = new Vocabulary(50_000, 20_000, 2_000, 42);
+        Random r = new Random(42);
+        index = new TrigramIndex();
+        infos = new MailStore.MessageInfo[messages];
+        texts = new String[messages];
+        for (int i = 0; i < messages; i++) {
+            String from = vocabulary.address(r);
+            String to = vocabulary.address(r);
+            String cc = r.nextInt(3) > 0 ? "" : vocabulary.address(r) + ", " + vocabulary.address(r);
+            String subject = (r.nextInt(3) == 0 ? "Re: " : "") + vocabulary.words(r, 3 + r.nextInt(6));
+            infos[i] = MailStore.MessageInfo.create("bench", "msg" + i + ".txt",
+                    to, from, cc, subject, "", null, MailStore.MessageInfo.NO_ATTACHMENTS, 0);
+            index.add("bench", "msg" + i + ".txt", infos[i]);
+            texts[i] = TrigramIndex.textOf(infos[i]);
+        }
+        query = switch (kind) {
+            case "rare" -> vocabulary.word(20_000);
+            case "common" -> vocabulary.domain(0);
+            default -> {
+                int rank = 500;
+                while (vocabulary.word(rank).length() < 7) {
+                    rank++;
+                }
+                String w = vocabulary.word(rank);
+                yield w.charAt(0) + w.substring(2);
+            }
+        };
+    }
+
+    @Benchmark
+    public List<MailStore.MessageInfo> indexSubstring() {
+        return index.substring(query);
+    }
+
+    @Benchmark
+    public List<MailStore.MessageInfo> scanSubstring() {
+        List<MailStore.MessageInfo> result = new ArrayList<>();
+        for (int i = 0; i < texts.length; i++) {
+            if (texts[i].contains(query)) {
+                result.add(infos[i]);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<MailStore.MessageInfo> indexFuzzy() {
+        return index.fuzzy(query, 1);
+    }
+
+    @Benchmark
+    public List<MailStore.MessageInfo> scanFuzzy() {
+        List<MailStore.MessageInfo> result = new ArrayList<>();
+        for (int i = 0; i < texts.length; i++) {
+            if (TrigramIndex.matchesWithin(texts[i], query, 1)) {
+                result.add(infos[i]);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Made up words, people and domains for generated mail, drawn with a Zipf
+ * distribution so that generated headers and bodies have about as many
+ * distinct words, and trigrams, as real mail: a few very common ones and
+ * a long tail of rare ones. The same seed gives the same vocabulary.
+ */
+final class Vocabulary {
+
+    private static final String[] ONSETS = {
+        "", "b", "c", "d", "f", "g", "h", "j", "k", "l", "m", "n", "p", "r", "s", "t", "v",
+        "w", "z", "bl", "br", "ch", "cl", "cr", "dr", "fl", "gr", "pl", "pr", "sh", "st", "th", "tr"
+    };
+    private static final String[] VOWELS = {
+        "a", "e", "i", "o", "u", "y", "ai", "ea", "ee", "io", "ou"
+    };
+    private static final String[] CODAS = {
+        "", "", "n", "r", "s", "t", "l", "m", "x", "ck", "nd", "ng", "nt", "rt", "st"
+    };
+    private static final String[] TLDS = {
+        "com", "org", "net", "io", "de", "fr", "co.uk", "ovh"
+    };
+
+    private final String[] words;
+    private final String[] people;
+    private final String[] domains;
+    private final double[] wordWeights;
+    private final double[] peopleWeights;
+    private final double[] domainWeights;
+
+    Vocabulary(int words, int people, int domains, long seed) {
+        Random r = new Random(seed);
+        this.words = distinct(words, () -> word(r, 1 + r.nextInt(4)));
+        this.people = distinct(people, () -> word(r, 1 + r.nextInt(2)) + "." + word(r, 1 + r.nextInt(3)));
+        this.domains = distinct(domains, () -> word(r, 1 + r.nextInt(3)) + "." + TLDS[r.nextInt(TLDS.length)]);
+        this.wordWeights = zipf(words);
+        this.peopleWeights = zipf(people);
+        this.domainWeights = zipf(domains);
+    }
+
+    private static String[] distinct(int count, Supplier<String> maker) {
+        Set<String> set = new LinkedHashSet<>();
+        while (set.size() < count) {
+            set.add(maker.get());
+        }
+        return set.toArray(new String[0]);
+    }
+
+    private static String word(Random r, int syllables) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < syllables; i++) {
+            sb.append(ONSETS[r.nextInt(ONSETS.length)])
+              .append(VOWELS[r.nextInt(VOWELS.length)])
+              .append(CODAS[r.nextInt(CODAS.length)]);
+        }
+        return sb.toString();
+    }
+
+    // Cumulative weights of the ranks, 1/rank each
+    private static double[] zipf(int n) {
+        double[] cumulative = new double[n];
+        double total = 0;
+        for (int k = 0; k < n; k++) {
+            total += 1.0 / (k + 1);
+            cumulative[k] = total;
+        }
+        return cumulative;
+    }
+
+    private static int pick(Random r, double[] cumulative) {
+        double x = r.nextDouble() * cumulative[cumulative.length - 1];
+        int i = Arrays.binarySearch(cumulative, x);
+        return i >= 0 ? i : Math.min(-i - 1, cumulative.length - 1);
+    }
+
+    String word(Random r) {
+        return words[pick(r, wordWeights)];
+    }
+
+    // The word of the given rank, 0 being the most common
+    String word(int rank) {
+        return words[rank];
+    }
+
+    String domain(int rank) {
+        return domains[rank];
+    }
+
+    String words(Random r, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(word(r));
+        }
+        return sb.toString();
+    }
+
+    // Words up to about the given length, broken into lines
+    String text(Random r, int length) {
+        StringBuilder sb = new StringBuilder(length + 16);
+        int line = 0;
+        while (sb.length() < length) {
+            String w = word(r);
+            if (line + w.length() > 72) {
+                sb.append('\n');
+                line = 0;
+            } else if (line > 0) {
+                sb.append(' ');
+                line++;
+            }
+            sb.append(w);
+            line += w.length();
+        }
+        return sb.toString();
+    }
+
+    String address(Random r) {
+        return people[pick(r, peopleWeights)] + "@" + domains[pick(r, domainWeights)];
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.layout;
+
+import javafx.scene.control.TreeItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ovh.look.jmail.MailStore;
+import ovh.look.jmail.MailboxGenerator;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building the folder tree row of a message, and parsing the message
+ * date, which the store does once when a message is loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FolderPaneBenchmark {
+
+    private static final String FOLDER = "bench";
+
+    @Param({"1000", "100000", "1000000"})
+    int messages;
+
+    MailStore.MessageInfo[] infos;
+    String[] dates;
+    int next;
+
+    @Setup
+    public void setup() throws IOException {
+        infos = MailboxGenerator.open(MailboxGenerator.cached(FOLDER, messages)).getMessages(FOLDER);
+        dates = new String[infos.length];
+        for (int i = 0; i < infos.length; i++) {
+            dates[i] = MailStore.formatDate(infos[i].getDate());
+        }
+    }
+
+    private int nextMessage() {
+        next = next == infos.length - 1 ? 0 : next + 1;
+        return next;
+    }
+
+    @Benchmark
+    public TreeItem<FolderPane.Item> createNode() {
+        int i = nextMessage();
+        return FolderPane.createNode(FOLDER, i, infos[i]);
+    }
+
+    @Benchmark
+    public long parseDate() {
+        return MailStore.parseDate(dates[nextMessage()]);
+    }
+}
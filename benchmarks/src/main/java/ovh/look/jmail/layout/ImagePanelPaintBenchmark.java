@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.layout;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repainting an image attachment: the bicubic rescale ImagePanel used to
+ * do on every paint against the pre-scaled blit, and a resize on every
+ * paint as the worst case of the pre-scaled panel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class ImagePanelPaintBenchmark {
+
+    @Param({"400", "800"})
+    int panelWidth;
+
+    BufferedImage thumbnail;
+    AttachmentPanel.ImagePanel panel;
+    BufferedImage screen;
+    Graphics2D g;
+    boolean flip;
+
+    @Setup
+    public void setup() {
+        thumbnail = new BufferedImage(900, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D tg = thumbnail.createGraphics();
+        tg.setPaint(new GradientPaint(0, 0, Color.red, 900, 600, Color.blue));
+        tg.fillRect(0, 0, 900, 600);
+        tg.dispose();
+        panel = new AttachmentPanel.ImagePanel(new File("photo.jpg"));
+        panel.setThumbnail(new ImageThumbnails.Thumbnail(thumbnail, 6000, 4000));
+        panel.setSize(panelWidth, panelWidth * 3 / 4);
+        screen = new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB);
+        g = screen.createGraphics();
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage bicubicEveryPaint() {
+        // What paintComponent did before the scaled image was kept
+        Dimension size = panel.getSize();
+        double scale = Math.min((double) size.width / panel.w, (double) size.height / panel.h);
+        g.setColor(panel.getBackground());
+        g.fillRect(0, 0, size.width, size.height);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                           RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g.drawImage(thumbnail, 0, 0, (int) (panel.w * scale), (int) (panel.h * scale), null);
+        return screen;
+    }
+
+    @Benchmark
+    public BufferedImage prescaled() {
+        panel.paintComponent(g);
+        return screen;
+    }
+
+    @Benchmark
+    public BufferedImage prescaledResizing() {
+        flip = !flip;
+        panel.setSize(panelWidth + (flip ? 1 : 0), panelWidth * 3 / 4);
+        panel.paintComponent(g);
+        return screen;
+    }
+}
@@ -1,5 +1,7 @@
 module jmail {
-    requires java.desktop;
+    requires transitive java.desktop;
+    requires java.management;
+    requires java.net.http;
     requires javafx.controls;
     requires javafx.swing;
     requires javafx.web;
@@ -9,4 +11,6 @@ module jmail {
     exports ovh.look.jmail.utils;
     exports ovh.look.jmail.layout;
     exports ovh.look.jmail.messages;
+    exports ovh.look.jmail.search;
+    exports ovh.look.jmail.mbox;
 }
@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Bounded LRU cache of the message headers of recently opened folders.
+ * <p>
+ * A WatchService, started by the first lookup, watches the folders that are
+ * loaded and evicts a folder as soon as anything in it changes, so edits made outside of JMail show up on the next
+ * {@code getMessages} call. The events of one poll of a folder are handled
+ * together. Folders that have a {@link FolderModel} are patched by the
+ * model instead of being dropped.
+ * If the watch service cannot be started the cache is disabled and every
+ * lookup goes to the loader.
+ * <p>
+ * Cached arrays are handed out as they are and never modified afterwards:
+ * a change puts a new array in place of the old one. Callers must not
+ * modify them either.
+ */
+final class FolderCache {
+
+    private final Path root;
+    private final int maxFolders;
+    private final int maxMessages;
+    private final LinkedHashMap<String, MailStore.MessageInfo[]> folders =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private int cachedMessages;
+
+    // Header indexes mapped to page through folders that are not cached,
+    // dropped together with the cached headers
+    private final LinkedHashMap<String, MailIndex> indexes =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+    // Loads in progress, so that concurrent misses on a folder share one load
+    private final Map<String, CompletableFuture<MailStore.MessageInfo[]>> loading = new HashMap<>();
+
+    // Bumped on every invalidation so that a load racing with a change
+    // on disk does not put stale headers back into the cache.
+    private final AtomicLong generation = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Gets the first say on changes, with the names of all files that
+    // changed in one poll of the folder. Returns true if it brought the
+    // cache up to date itself.
+    interface ChangeHandler {
+        boolean folderChanged(String folder, Set<String> fileNames);
+
+        // Called with the same names once the cache is up to date with them
+        default void changeApplied(String folder, Set<String> fileNames) {
+        }
+    }
+
+    private final ChangeHandler changeHandler;
+
+    // Started by the first folder that is watched, null if that failed
+    private volatile WatchService watcher;
+    private boolean watcherStarted;   // guarded by this
+    private final Map<WatchKey, Path> watchedDirs = new ConcurrentHashMap<>();
+    private final Set<Path> watchedPaths = ConcurrentHashMap.newKeySet();
+
+    FolderCache(String rootDir, int maxFolders, int maxMessages, ChangeHandler changeHandler) {
+        this.root = Path.of(rootDir).toAbsolutePath().normalize();
+        this.maxFolders = maxFolders;
+        this.maxMessages = maxMessages;
+        this.changeHandler = changeHandler;
+    }
+
+    static String key(String folder) {
+        return Path.of(folder).normalize().toString();
+    }
+
+    MailStore.MessageInfo[] get(String folder, Function<String, MailStore.MessageInfo[]> loader) {
+        if (!watch(folder)) {
+            misses.incrementAndGet();
+            return loader.apply(folder);
+        }
+        String key = key(folder);
+        CompletableFuture<MailStore.MessageInfo[]> load;
+        synchronized (this) {
+            MailStore.MessageInfo[] infos = folders.get(key);
+            if (infos != null) {
+                hits.incrementAndGet();
+                return infos;
+            }
+            misses.incrementAndGet();
+            load = loading.get(key);
+            if (load == null) {
+                loading.put(key, new CompletableFuture<>());
+            }
+        }
+        if (load != null) {
+            return load.join();
+        }
+        long gen = generation.get();
+        MailStore.MessageInfo[] infos = null;
+        try {
+            infos = loader.apply(folder);
+            return infos;
+        } finally {
+            synchronized (this) {
+                if (infos != null && gen == generation.get()) {
+                    put(key, infos);
+                }
+                load = loading.remove(key);
+            }
+            if (infos != null) {
+                load.complete(infos);
+            } else {
+                load.completeExceptionally(new IllegalStateException("Unable to load " + folder));
+            }
+        }
+    }
+
+    // Returns the open header index of a folder, opening it on a miss.
+    // Like the headers it is only kept while the folder is watched.
+    MailIndex getIndex(String folder, Function<String, MailIndex> opener) {
+        if (!watch(folder)) {
+            return opener.apply(folder);
+        }
+        String key = key(folder);
+        long gen;
+        synchronized (this) {
+            MailIndex index = indexes.get(key);
+            if (index != null) {
+                return index;
+            }
+            gen = generation.get();
+        }
+        MailIndex index = opener.apply(folder);
+        synchronized (this) {
+            if (index != null && gen == generation.get()) {
+                indexes.put(key, index);
+                Iterator<String> it = indexes.keySet().iterator();
+                while (indexes.size() > maxFolders) {
+                    it.next();
+                    it.remove();
+                }
+            }
+        }
+        return index;
+    }
+
+    // Stores headers that were patched rather than loaded
+    synchronized void replace(String folder, MailStore.MessageInfo[] infos) {
+        if (watcher == null) {
+            return;
+        }
+        generation.incrementAndGet();
+        String key = key(folder);
+        indexes.remove(key);
+        put(key, infos);
+    }
+
+    private void put(String key, MailStore.MessageInfo[] infos) {
+        MailStore.MessageInfo[] old = folders.put(key, infos);
+        if (old != null) {
+            cachedMessages -= old.length;
+        }
+        cachedMessages += infos.length;
+        evict();
+    }
+
+    // Returns the cached headers of a folder without loading them on a miss
+    MailStore.MessageInfo[] peek(String folder) {
+        if (watcher == null) {
+            return null;
+        }
+        synchronized (this) {
+            MailStore.MessageInfo[] infos = folders.get(key(folder));
+            if (infos != null) {
+                hits.incrementAndGet();
+            }
+            return infos;
+        }
+    }
+
+    // Drop least recently used folders until both bounds hold again,
+    // always keeping the most recently used one.
+    private void evict() {
+        Iterator<Map.Entry<String, MailStore.MessageInfo[]>> it = folders.entrySet().iterator();
+        while (folders.size() > 1 &&
+               (folders.size() > maxFolders || cachedMessages > maxMessages)) {
+            Map.Entry<String, MailStore.MessageInfo[]> eldest = it.next();
+            cachedMessages -= eldest.getValue().length;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    synchronized boolean isCached(String folder) {
+        return folders.containsKey(key(folder));
+    }
+
+    synchronized void invalidate(String folder) {
+        generation.incrementAndGet();
+        indexes.remove(key(folder));
+        MailStore.MessageInfo[] old = folders.remove(key(folder));
+        if (old != null) {
+            cachedMessages -= old.length;
+        }
+    }
+
+    synchronized void invalidateAll() {
+        generation.incrementAndGet();
+        folders.clear();
+        indexes.clear();
+        cachedMessages = 0;
+    }
+
+    MailStore.CacheStats getStats() {
+        synchronized (this) {
+            return new MailStore.CacheStats(hits.get(), misses.get(), evictions.get(),
+                                            folders.size(), cachedMessages);
+        }
+    }
+
+    // Watches a folder from now on, starting the watcher the first time.
+    // Only folders that are cached or have a model are watched, together
+    // with the directories above them so that their removal is noticed, so
+    // the store is never walked. Returns false if the folder cannot be
+    // watched, nothing of it may be cached then.
+    boolean watch(String folder) {
+        WatchService ws = startWatcher();
+        if (ws == null) {
+            return false;
+        }
+        Path dir = root.resolve(key(folder)).normalize();
+        if (watchedPaths.contains(dir)) {
+            return true;
+        }
+        if (!dir.startsWith(root)) {
+            return false;
+        }
+        try {
+            for (Path d = dir; d != null && d.startsWith(root); d = d.getParent()) {
+                if (watchedPaths.add(d)) {
+                    WatchKey key = d.register(ws,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY);
+                    watchedDirs.put(key, d);
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            // Typically a folder that does not exist
+            watchedPaths.remove(dir);
+            return false;
+        }
+    }
+
+    private synchronized WatchService startWatcher() {
+        if (!watcherStarted) {
+            watcherStarted = true;
+            try {
+                watcher = FileSystems.getDefault().newWatchService();
+                Thread t = new Thread(this::processEvents, "JMail store watcher");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                System.err.println("Folder cache disabled, unable to watch " + root + ": " + e);
+                watcher = null;
+            }
+        }
+        return watcher;
+    }
+
+    private void processEvents() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = watchedDirs.get(key);
+            if (dir != null) {
+                handleEvents(dir, key.pollEvents());
+            }
+            if (!key.reset() && dir != null) {
+                // The directory went away
+                watchedDirs.remove(key);
+                watchedPaths.remove(dir);
+                invalidate(root.relativize(dir).toString());
+            }
+        }
+    }
+
+    // Handles the events of one poll of a directory together, so that a
+    // burst of changes to a folder is dealt with once
+    void handleEvents(Path dir, List<WatchEvent<?>> events) {
+        Set<String> changed = new LinkedHashSet<>();
+        for (WatchEvent<?> event : events) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                invalidateAll();
+                continue;
+            }
+            Path name = (Path) event.context();
+            // Writing the header index is not a change to the folder contents.
+            if (name.toString().startsWith(MailIndex.INDEX_FILE)) {
+                continue;
+            }
+            changed.add(name.toString());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                invalidate(root.relativize(dir.resolve(name)).toString());
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
+        // Dropping the cached headers is enough unless the change handler
+        // brought them up to date
+        String folder = root.relativize(dir).toString();
+        boolean patched = changeHandler.folderChanged(folder, changed) && isCached(folder);
+        if (!patched) {
+            invalidate(folder);
+        }
+        changeHandler.changeApplied(folder, changed);
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The messages of one folder, shared by all views that show it.
+ * <p>
+ * When the folder changes on disk the model works out which messages were
+ * added, removed or edited, reads only those, and tells its listeners one
+ * message at a time. The MailStore cache and header index are patched in
+ * the same step, so views never need to reload the whole folder.
+ * <p>
+ * The model also keeps the total size of the folder's messages, adjusted
+ * with each event rather than summed again.
+ * <p>
+ * Listeners are called on the store watcher thread and must hand the work
+ * over to their own UI thread.
+ */
+public class FolderModel {
+
+    // totalSize is the size of the folder after the change, -1 if unknown
+    public record FolderEvent(FolderModel source, int index, String fileName,
+                              MailStore.MessageInfo message, long totalSize) {}
+
+    public interface Listener {
+        void messageAdded(FolderEvent e);
+        void messageRemoved(FolderEvent e);   // e.message() is null
+        void messageUpdated(FolderEvent e);
+    }
+
+    private final MailStore store;
+    private final String folder;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ArrayList<String> fileNames;
+    private final Set<String> names;   // The same as a set
+    private long totalSize = -1;   // Sum of the message sizes, -1 until known
+
+    FolderModel(MailStore store, String folder) {
+        this.store = store;
+        this.folder = folder;
+        this.fileNames = new ArrayList<>(List.of(store.getMessageFiles(folder)));
+        this.names = new HashSet<>(fileNames);
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public synchronized int size() {
+        return fileNames.size();
+    }
+
+    // Registers a listener and returns the number of messages it should
+    // start from; later events are relative to that state.
+    public synchronized int addListener(Listener l) {
+        listeners.add(l);
+        return fileNames.size();
+    }
+
+    // Registers a listener and returns the messages it should start from.
+    public synchronized MailStore.MessageInfo[] addListenerAndGetMessages(Listener l) {
+        String[] files = store.getMessageFiles(folder);
+        MailStore.MessageInfo[] infos = store.getMessages(folder);
+        fileNames.clear();
+        fileNames.addAll(List.of(files));
+        names.clear();
+        names.addAll(fileNames);
+        listeners.add(l);
+        totalSize = sizeOf(infos);
+        return infos;
+    }
+
+    // Returns the total size of the messages, loading them the first time
+    public synchronized long getTotalSize() {
+        if (totalSize < 0) {
+            totalSize = sizeOf(store.getMessages(folder));
+        }
+        return totalSize;
+    }
+
+    private static long sizeOf(MailStore.MessageInfo[] infos) {
+        long size = 0;
+        for (MailStore.MessageInfo info : infos) {
+            if (info != null) {
+                size += info.getSize();
+            }
+        }
+        return size;
+    }
+
+    private void adjustSize(MailStore.MessageInfo removed, MailStore.MessageInfo added) {
+        if (totalSize >= 0) {
+            totalSize += (added != null ? added.getSize() : 0) - (removed != null ? removed.getSize() : 0);
+        }
+    }
+
+    public void removeListener(Listener l) {
+        listeners.remove(l);
+    }
+
+    // Brings the model up to date after changedFiles were created, modified
+    // or deleted in the folder. msg-list.txt is only read again if it is one
+    // of them, and files that are not listed messages are ignored. Returns
+    // true if the cached headers of the folder were brought up to date, so
+    // they do not have to be dropped.
+    synchronized boolean refresh(Set<String> changedFiles) {
+        boolean listChanged = changedFiles.contains(MailIndex.MSG_LIST_FILE);
+        List<String> edited = new ArrayList<>();
+        for (String name : changedFiles) {
+            if (names.contains(name)) {
+                edited.add(name);
+            }
+        }
+        if (!listChanged && edited.isEmpty()) {
+            // Body or attachment files, the headers may still refer to them
+            return false;
+        }
+
+        MailStore.MessageInfo[] cached = store.peekMessages(folder);
+        if (cached == null) {
+            // Nothing to adjust the total with, it is summed again when asked for
+            totalSize = -1;
+        }
+        if (listChanged) {
+            cached = reconcile(cached);
+        }
+
+        MailStore.MessageInfo[] infos = cached != null ? cached.clone() : null;
+        for (String name : edited) {
+            int i = fileNames.indexOf(name);
+            if (i < 0) {
+                continue;   // Removed from msg-list.txt as well
+            }
+            MailStore.MessageInfo info = readMessage(name);
+            if (infos != null && (i >= infos.length ||
+                    (infos[i] != null && !infos[i].getFileName().equals(name)))) {
+                // The cached headers are from another version of msg-list.txt
+                infos = null;
+                totalSize = -1;
+            }
+            if (infos != null) {
+                adjustSize(infos[i], info);
+                infos[i] = info;
+            }
+            fire(Kind.UPDATED, i, name, info);
+        }
+
+        if (infos == null) {
+            return false;
+        }
+        store.replaceMessages(folder, infos);
+        return true;
+    }
+
+    // Reconciles the model with msg-list.txt and returns the headers in
+    // the new order, or null if cached was null
+    private MailStore.MessageInfo[] reconcile(MailStore.MessageInfo[] cached) {
+        String[] files = store.getMessageFiles(folder);
+        Map<String, MailStore.MessageInfo> known = new HashMap<>();
+        if (cached != null) {
+            for (MailStore.MessageInfo info : cached) {
+                if (info != null) {
+                    known.put(info.getFileName(), info);
+                }
+            }
+        }
+
+        Set<String> newNames = new HashSet<>(List.of(files));
+        Set<String> oldNames = new HashSet<>(names);
+
+        // Removals first, from the end so the indexes stay valid
+        for (int i = fileNames.size() - 1; i >= 0; i--) {
+            String name = fileNames.get(i);
+            if (!newNames.contains(name)) {
+                fileNames.remove(i);
+                names.remove(name);
+                adjustSize(known.remove(name), null);
+                fire(Kind.REMOVED, i, name, null);
+            }
+        }
+
+        // What is left is in msg-list.txt order unless the list was
+        // reordered, in which case start over with the new list.
+        for (int i = 0; i < files.length; i++) {
+            if (i < fileNames.size() && fileNames.get(i).equals(files[i])) {
+                continue;
+            }
+            if (oldNames.contains(files[i])) {
+                for (int j = fileNames.size() - 1; j >= 0; j--) {
+                    adjustSize(known.get(fileNames.get(j)), null);
+                    fire(Kind.REMOVED, j, fileNames.get(j), null);
+                }
+                fileNames.clear();
+                names.clear();
+                oldNames.clear();
+                i = -1;
+                continue;
+            }
+            MailStore.MessageInfo info = known.containsKey(files[i]) ?
+                    known.get(files[i]) : readMessage(files[i]);
+            known.put(files[i], info);
+            fileNames.add(i, files[i]);
+            names.add(files[i]);
+            adjustSize(null, info);
+            fire(Kind.ADDED, i, files[i], info);
+        }
+
+        if (cached == null) {
+            return null;
+        }
+        MailStore.MessageInfo[] infos = new MailStore.MessageInfo[fileNames.size()];
+        for (int i = 0; i < infos.length; i++) {
+            infos[i] = known.get(fileNames.get(i));
+        }
+        return infos;
+    }
+
+    private MailStore.MessageInfo readMessage(String fileName) {
+        try {
+            return store.getMessageInfo(folder, fileName);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return null;
+        }
+    }
+
+    private enum Kind { ADDED, REMOVED, UPDATED }
+
+    private void fire(Kind kind, int index, String fileName, MailStore.MessageInfo info) {
+        FolderEvent e = new FolderEvent(this, index, fileName, info, totalSize);
+        for (Listener l : listeners) {
+            try {
+                switch (kind) {
+                    case ADDED -> l.messageAdded(e);
+                    case REMOVED -> l.messageRemoved(e);
+                    case UPDATED -> l.messageUpdated(e);
+                }
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+}
@@ -26,8 +26,10 @@ package ovh.look.jmail;
 import javafx.application.Platform;
 import ovh.look.jmail.layout.FolderPane;
 import ovh.look.jmail.layout.MessagesArea;
+import ovh.look.jmail.layout.SearchResults;
 import ovh.look.jmail.messages.ComposeMessage;
-import ovh.look.jmail.utils.AssetUtils;
+import ovh.look.jmail.search.SearchEngine;
+import ovh.look.jmail.utils.IconCache;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
@@ -39,6 +41,8 @@ import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
 import java.awt.print.PrinterJob;
 import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 
 public class JMail {
@@ -49,17 +53,62 @@ public class JMail {
     MessagesArea messagesArea;
     SystemTray systemTray;
 
+    // Icons decoded while the store is scanned, before the toolbar needs them
+    private static final String[] TOOLBAR_ICONS = {
+        "images/refresh.128x128.png", "images/right-arrow.128x128.png",
+        "images/left-arrow.128x128.png", "images/pencil.2.128x128.png",
+        "images/reply2.128x128.png", "images/trash.128x128.png",
+        "images/printer.128x128.png"
+    };
+    private static final int TOOLBAR_ICON_SIZE = 48;
+
     public static void main(String[] args) {
-        handleSplashScreen();
+        Startup.time("splash", JMail::handleSplashScreen);
+
+        // The toolkit, the store and the icons do not depend on each other,
+        // the window needs all of them.
+        CompletableFuture<Void> fx = Startup.run("fx toolkit", JMail::startFxToolkit);
+        CompletableFuture<Void> store = Startup.run("store scan", JMail::scanStore);
+        CompletableFuture<Void> assets = Startup.run("assets", JMail::decodeAssets);
+        try {
+            CompletableFuture.allOf(fx, store, assets).join();
+        } catch (CompletionException e) {
+            e.getCause().printStackTrace();
+        }
 
         final JMail jm = new JMail();
-        MailStore.getMailStore();
         try {
-            SwingUtilities.invokeAndWait(() -> jm.createUI());
+            SwingUtilities.invokeAndWait(() -> {
+                Startup.time("ui", jm::createUI);
+                Startup.uiReady(jm.messagesArea.messageHeaders.getCurrentMessage() != null);
+            });
         } catch (InterruptedException | InvocationTargetException e) {
         }
     }
 
+    private static void startFxToolkit() {
+        try {
+            Platform.startup(() -> {});
+        } catch (IllegalStateException e) {
+            // Already started
+        }
+    }
+
+    private static void scanStore() {
+        MailStore store = MailStore.getMailStore();
+        // The inbox is shown first, have its list and first page of headers ready
+        store.getFolderModel("inbox");
+        store.getMessages("inbox", 0, 256);
+    }
+
+    private static void decodeAssets() {
+        for (String icon : TOOLBAR_ICONS) {
+            IconCache.getIcon(icon, TOOLBAR_ICON_SIZE);
+        }
+        IconCache.getIcon("images/paperclip.128x128.png", 16);
+        IconCache.getImage("images/mail.angle.128x128.png");
+    }
+
     // Get the preferred height for the message pane
     private int getPreferredHeight() {
         final int TOOLBAR_HEIGHT = 64;
@@ -84,12 +133,7 @@ public class JMail {
         }
         // create the main window.
         mainWindow = new JFrame("JMail");
-        try {
-            Image iconImage = AssetUtils.getBufferedImage("images/mail.angle.128x128.png");
-            mainWindow.setIconImage(iconImage);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        mainWindow.setIconImage(IconCache.getImage("images/mail.angle.128x128.png"));
         mainWindow.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         GridBagLayout mainLayout = new GridBagLayout();
         mainWindow.setLayout(mainLayout);
@@ -127,25 +171,13 @@ public class JMail {
         mainWindow.show();
         addSystemTrayIcon();
         addAboutHandler();
+
+        // Opens the search index and catches up with changes in the background
+        SearchEngine.getSearchEngine();
     }
 
     static ImageIcon loadIconImage(String image, int targetSize) {
-        ImageIcon icon = null;
-        if (image != null) {
-            try {
-                BufferedImage bi = AssetUtils.getBufferedImage(image);
-                BufferedImage img = new BufferedImage(targetSize, targetSize, bi.getType());
-                Graphics2D g2d = img.createGraphics();
-                g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                        RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-                g2d.drawImage(bi, 0, 0, targetSize, targetSize, null);
-                g2d.dispose();
-                icon = new ImageIcon(img);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-        return icon;
+        return image != null ? IconCache.getIcon(image, targetSize) : null;
     }
     public static JButton createButton(String image, int targetSize, String text, String toolTip) {
         ImageIcon icon = loadIconImage(image, targetSize);
@@ -165,7 +197,7 @@ public class JMail {
         tBar.setMargin(new Insets(5, 5, 5, 5));
         tBar.setFloatable(false);
 
-        int size = 48;
+        int size = TOOLBAR_ICON_SIZE;
 
         JButton getMsgs = createButton("images/refresh.128x128.png", size, null, "Check for new messages");
 
@@ -204,6 +236,21 @@ public class JMail {
         tBar.addSeparator();
         tBar.add(print);
 
+        tBar.add(Box.createHorizontalGlue());
+        JComboBox<SearchResults.Mode> searchMode = new JComboBox<>(SearchResults.Mode.values());
+        searchMode.setMaximumSize(searchMode.getPreferredSize());
+        JTextField search = new JTextField(20);
+        search.setMaximumSize(search.getPreferredSize());
+        search.setToolTipText("Search messages");
+        search.addActionListener(e -> {
+            String query = search.getText().trim();
+            if (!query.isEmpty()) {
+                SearchResults.show(query, (SearchResults.Mode) searchMode.getSelectedItem());
+            }
+        });
+        tBar.add(searchMode);
+        tBar.add(search);
+
         return tBar;
     }
 
@@ -217,7 +264,7 @@ public class JMail {
             systemTray = SystemTray.getSystemTray();
             String os = System.getProperty("os.name").toLowerCase();
             String icon = os.startsWith("mac") ? "mail.128x128.png" : "mail.16x16.png";
-            Image trayImage = AssetUtils.getBufferedImage("images/" + icon);
+            Image trayImage = IconCache.getImage("images/" + icon);
             PopupMenu menu = new PopupMenu();
             MenuItem item = new MenuItem("Compose New Message");
             menu.add(item);
@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * Binary header index kept next to a folder's msg-list.txt.
+ * <p>
+ * Layout: a fixed header, one variable length entry per message in
+ * msg-list.txt order, then a table of entry offsets so single entries
+ * can be located without decoding the ones before them.
+ * <pre>
+ *   int magic, int version
+ *   long msg-list.txt lastModified, long msg-list.txt length
+ *   long folder lastModified, int count
+ *   entry[count]
+ *   int offset[count]       (relative to the first entry)
+ * </pre>
+ * An entry is a state byte, {@code ABSENT} for a message that could not be
+ * read, {@code CURRENT} or {@code STALE}, followed, for a present message, by varint-length UTF-8 strings for
+ * file, subject, body and the date as written when it could not be
+ * parsed, then to, from and cc, the date and the size of the body and
+ * attachment files as longs, the attachment count and a (type, name)
+ * pair per attachment. The first four strings are copied as they are
+ * into the MessageInfo, which decodes them on demand.
+ * <p>
+ * The whole index is stale when msg-list.txt or the folder directory
+ * changed since it was written; creating, renaming or deleting a message
+ * file touches the directory, so those are caught by {@link #open}. A
+ * message file edited in place changes neither. Loads do not look at the
+ * message files, the store watcher marks their entries with
+ * {@link #markStale} instead, so edits made while JMail is not running
+ * are only seen once the folder changes.
+ */
+final class MailIndex {
+
+    static final String INDEX_FILE = "msg-index.bin";
+    static final String MSG_LIST_FILE = "msg-list.txt";
+
+    private static final int MAGIC = 0x4A4D4958; // "JMIX"
+    private static final int VERSION = 7;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 8 + 4;
+    private static final int DIR_MODIFIED_POS = 4 + 4 + 8 + 8;
+
+    // Entry states, ABSENT and STALE entries are read again on the next load
+    private static final byte ABSENT = 0;
+    private static final byte CURRENT = 1;
+    private static final byte STALE = 2;
+
+    private final String folderPath;
+    private final MappedByteBuffer buffer;
+    private final int count;
+    private final int offsetTable;
+    private byte[] scratch = new byte[256];
+
+    private MailIndex(String folderPath, MappedByteBuffer buffer, int count) {
+        this.folderPath = folderPath;
+        this.buffer = buffer;
+        this.count = count;
+        this.offsetTable = buffer.limit() - 4 * count;
+    }
+
+    static File indexFile(String folderPath) {
+        return new File(folderPath, INDEX_FILE);
+    }
+
+    /**
+     * Maps the index of the given folder, or returns null if there is no
+     * index or it is stale against msg-list.txt and the folder directory.
+     */
+    static MailIndex open(String folderPath) {
+        File dir = new File(folderPath);
+        File list = new File(dir, MSG_LIST_FILE);
+        File index = indexFile(folderPath);
+        if (!index.isFile() || !list.isFile()) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                return null;
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+                return null;
+            }
+            if (buf.getLong() != list.lastModified() ||
+                buf.getLong() != list.length() ||
+                buf.getLong() != dir.lastModified()) {
+                return null;
+            }
+            int count = buf.getInt();
+            if (count < 0 || HEADER_SIZE + 4L * count > size) {
+                return null;
+            }
+            return new MailIndex(folderPath, buf, count);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns whether entry i holds the headers of its message as they are,
+     * false if the message could not be read or was edited since.
+     */
+    boolean isCurrent(int i) {
+        return buffer.get(HEADER_SIZE + buffer.getInt(offsetTable + 4 * i)) == CURRENT;
+    }
+
+    /**
+     * Marks the entries of the given message files, edited in place, to be
+     * read again on the next load. Nothing needs to be done when the index
+     * is stale as a whole.
+     */
+    static void markStale(String folderPath, Set<String> fileNames) {
+        MailIndex index = open(folderPath);
+        if (index == null) {
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(indexFile(folderPath).toPath(),
+                                               StandardOpenOption.WRITE)) {
+            ByteBuffer state = ByteBuffer.allocate(1).put(0, STALE);
+            ByteBuffer buf = index.buffer.duplicate();
+            for (int i = 0; i < index.count; i++) {
+                int pos = HEADER_SIZE + index.buffer.getInt(index.offsetTable + 4 * i);
+                buf.position(pos);
+                if (buf.get() != CURRENT) {
+                    continue;
+                }
+                if (fileNames.contains(index.readString(buf))) {
+                    ch.write(state.clear(), pos);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to update header index of " + folderPath + ": " + e);
+        }
+    }
+
+    /**
+     * Decodes entry i, or returns null if the message could not be read
+     * when the index was built.
+     */
+    MailStore.MessageInfo get(int i) {
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(HEADER_SIZE + buffer.getInt(offsetTable + 4 * i));
+        int len = stringsLength(buf);
+        if (len == 0) {
+            return null;
+        }
+        byte[] strings = new byte[len];
+        buf.get(buf.position() - len, strings, 0, len);
+        return readEntry(buf, strings, 0);
+    }
+
+    /**
+     * Decodes all entries with one sequential pass over the mapping. The
+     * per message strings of all of them share one array.
+     */
+    MailStore.MessageInfo[] getAll() {
+        int total = 0;
+        ByteBuffer buf = buffer.duplicate();
+        for (int i = 0; i < count; i++) {
+            buf.position(HEADER_SIZE + buffer.getInt(offsetTable + 4 * i));
+            total += stringsLength(buf);
+        }
+        byte[] strings = new byte[total];
+        int offset = 0;
+
+        MailStore.MessageInfo[] infos = new MailStore.MessageInfo[count];
+        buf.position(HEADER_SIZE);
+        for (int i = 0; i < count; i++) {
+            int len = stringsLength(buf);
+            if (len > 0) {
+                buf.get(buf.position() - len, strings, offset, len);
+                infos[i] = readEntry(buf, strings, offset);
+                offset += len;
+            }
+        }
+        return infos;
+    }
+
+    // Returns the length of the strings of the entry at the position of
+    // buf, 0 for a missing message, and moves buf past them
+    private static int stringsLength(ByteBuffer buf) {
+        boolean present = buf.get() != ABSENT;
+        if (!present) {
+            return 0;
+        }
+        int start = buf.position();
+        for (int s = 0; s < MailStore.MessageInfo.STRING_COUNT; s++) {
+            int len = readVarInt(buf) - 1;
+            buf.position(buf.position() + Math.max(len, 0));
+        }
+        return buf.position() - start;
+    }
+
+    // Decodes the rest of an entry whose strings were copied to strings
+    private MailStore.MessageInfo readEntry(ByteBuffer buf, byte[] strings, int offset) {
+        String to = readString(buf);
+        String from = readString(buf);
+        String cc = readString(buf);
+        long date = buf.getLong();
+        long size = buf.getLong();
+        int n = readVarInt(buf);
+        MailStore.AttachmentDesc[] attachments = n == 0 ? MailStore.MessageInfo.NO_ATTACHMENTS :
+                new MailStore.AttachmentDesc[n];
+        for (int a = 0; a < n; a++) {
+            String type = readString(buf);
+            String name = readString(buf);
+            attachments[a] = new MailStore.AttachmentDesc(type, name);
+        }
+        return new MailStore.MessageInfo(folderPath, to, from, cc, date, size, attachments, strings, offset);
+    }
+
+    private String readString(ByteBuffer buf) {
+        // Lengths are stored +1 so that 0 can encode null.
+        int len = readVarInt(buf) - 1;
+        if (len < 0) {
+            return null;
+        }
+        if (scratch.length < len) {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        }
+        buf.get(scratch, 0, len);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private static int readVarInt(ByteBuffer buf) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buf.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Writes the index for a folder, infos being the headers of the
+     * messages of msg-list.txt in its order. The file is written to a
+     * temporary name and moved into place so readers never see a partial
+     * index.
+     */
+    static void write(String folderPath, MailStore.MessageInfo[] infos) throws IOException {
+        File dir = new File(folderPath);
+        File list = new File(dir, MSG_LIST_FILE);
+        long listModified = list.lastModified();
+        long listLength = list.length();
+
+        Path target = indexFile(folderPath).toPath();
+        Path tmp = Files.createTempFile(dir.toPath(), INDEX_FILE, ".tmp");
+        try {
+            int[] offsets = new int[infos.length];
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(listModified);
+                out.writeLong(listLength);
+                out.writeLong(0L); // folder lastModified, patched below
+                out.writeInt(infos.length);
+                for (int i = 0; i < infos.length; i++) {
+                    offsets[i] = out.size() - HEADER_SIZE;
+                    writeEntry(out, infos[i]);
+                }
+                for (int offset : offsets) {
+                    out.writeInt(offset);
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+
+        // Moving the index into place modified the directory, so record its
+        // time stamp only now. Writing into the existing file does not.
+        try (FileChannel ch = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            ByteBuffer stamp = ByteBuffer.allocate(8).putLong(0, dir.lastModified());
+            ch.write(stamp, DIR_MODIFIED_POS);
+        }
+    }
+
+    private static void writeEntry(DataOutputStream out, MailStore.MessageInfo info) throws IOException {
+        // A message that could not be read is tried again on the next load
+        out.writeByte(info == null ? ABSENT : CURRENT);
+        if (info == null) {
+            return;
+        }
+        for (int s = 0; s < MailStore.MessageInfo.STRING_COUNT; s++) {
+            writeString(out, info.getString(s));
+        }
+        writeString(out, info.getTo());
+        writeString(out, info.getFrom());
+        writeString(out, info.getCc());
+        out.writeLong(info.getDate());
+        out.writeLong(info.getSize());
+        writeVarInt(out, info.getAttachments().length);
+        for (MailStore.AttachmentDesc d : info.getAttachments()) {
+            writeString(out, d.attachmentType);
+            writeString(out, d.attachmentName);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+}
@@ -23,13 +23,35 @@
 
 package ovh.look.jmail;
 
+import ovh.look.jmail.utils.Utils;
+
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 public class MailStore {
 
@@ -77,7 +99,41 @@ public class MailStore {
         return f.isDirectory();
     }
 
-    String[] getMessageFiles(String folderPath) {
+    // Returns the paths, relative to the store, of all folders that have a
+    // msg-list.txt, walking sub-folders too
+    public List<String> getMailFolders() {
+        List<String> result = new ArrayList<>();
+        addMailFolders(new File(getMailStoreDir()), null, result);
+        return result;
+    }
+
+    private void addMailFolders(File dir, String folderPath, List<String> result) {
+        if (folderPath != null && new File(dir, MailIndex.MSG_LIST_FILE).isFile()) {
+            result.add(folderPath);
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    addMailFolders(f, folderPath == null ? f.getName() :
+                            folderPath + File.separatorChar + f.getName(), result);
+                }
+            }
+        }
+    }
+
+    // Reads the headers of a single message, or returns null if it cannot be read
+    public MessageInfo getMessage(String folder, String msgFile) {
+        try {
+            return getMessageInfo(folder, msgFile);
+        } catch (Throwable t) {
+            t.printStackTrace();
+            return null;
+        }
+    }
+
+    // Returns the message files of a folder in msg-list.txt order
+    public String[] getMessageFiles(String folderPath) {
         String fullPath = getMailStoreDir() + File.separatorChar +
                 folderPath + File.separatorChar + "msg-list.txt";
         File msgListFile = new File(fullPath);
@@ -95,8 +151,205 @@ public class MailStore {
         return msgFiles.toArray(new String[0]);
     }
 
+    // Recently opened folders, sized with the jmail.cache.folders and
+    // jmail.cache.messages system properties.
+    private final FolderCache folderCache = new FolderCache(getMailStoreDir(),
+            Integer.getInteger("jmail.cache.folders", 16),
+            Integer.getInteger("jmail.cache.messages", 500_000),
+            new FolderCache.ChangeHandler() {
+                public boolean folderChanged(String folder, Set<String> fileNames) {
+                    return MailStore.this.folderChanged(folder, fileNames);
+                }
+
+                public void changeApplied(String folder, Set<String> fileNames) {
+                    for (FolderListener l : folderListeners) {
+                        try {
+                            l.folderChanged(folder, fileNames);
+                        } catch (Throwable t) {
+                            t.printStackTrace();
+                        }
+                    }
+                }
+            });
+
+    private final Map<String, FolderModel> folderModels = new ConcurrentHashMap<>();
+
+    public interface FolderListener {
+        // Called on the store watcher thread with the names of the files
+        // that were created, modified or deleted together in folder
+        void folderChanged(String folder, Set<String> fileNames);
+    }
+
+    private final List<FolderListener> folderListeners = new CopyOnWriteArrayList<>();
+
+    // Reports the changes seen in the watched folders, without the cost of
+    // a FolderModel for each of them
+    public void addFolderListener(FolderListener l) {
+        folderListeners.add(l);
+    }
+
+    // Watches a folder for changes even if it is neither cached nor has a
+    // model. Returns false if it cannot be watched.
+    public boolean watchFolder(String folder) {
+        return folderCache.watch(folder);
+    }
+
+    // Returns the shared, observable model of a folder
+    public FolderModel getFolderModel(String folder) {
+        return folderModels.computeIfAbsent(FolderCache.key(folder), k -> {
+            folderCache.watch(folder);
+            return new FolderModel(this, folder);
+        });
+    }
+
+    // Called by the store watcher when fileNames changed in folder. Folders
+    // with a model are patched by it when it can, the others are simply
+    // reloaded later.
+    private boolean folderChanged(String folder, Set<String> fileNames) {
+        FolderModel model = folderModels.get(FolderCache.key(folder));
+        boolean patched = model != null && model.refresh(fileNames);
+        if (!patched) {
+            // Loads trust the header index, so it has to learn of files
+            // edited in place here
+            MailIndex.markStale(getMailStoreDir() + File.separatorChar + folder, fileNames);
+        }
+        return patched;
+    }
+
+    // Returns the cached headers of a folder, or null if it is not cached.
+    // The array is shared and must not be modified.
+    public MessageInfo[] peekMessages(String folder) {
+        return folderCache.peek(folder);
+    }
+
+    // Replaces the cached headers of a folder, in msg-list.txt order, and
+    // rewrites its header index
+    void replaceMessages(String folder, MessageInfo[] infos) {
+        folderCache.replace(folder, infos);
+        try {
+            MailIndex.write(getMailStoreDir() + File.separatorChar + folder, infos);
+        } catch (IOException e) {
+            System.err.println("Unable to write header index for " + folder + ": " + e);
+        }
+    }
+
+    public record CacheStats(long hits, long misses, long evictions,
+                             int folders, int messages) {}
+
+    public CacheStats getCacheStats() {
+        return folderCache.getStats();
+    }
+
+    // Returns the headers of all messages in a folder. Repeated calls are
+    // served from the folder cache until something in the folder changes,
+    // and return the same array, which must not be modified.
     public MessageInfo[] getMessages(String folder) {
+        return folderCache.get(folder, this::loadMessages);
+    }
+
+    // Returns the number of messages in a folder without loading them
+    public int getMessageCount(String folder) {
+        MessageInfo[] cached = folderCache.peek(folder);
+        if (cached != null) {
+            return cached.length;
+        }
+        MailIndex index = openIndex(folder);
+        if (index != null) {
+            return index.size();
+        }
+        return getMessageFiles(folder).length;
+    }
+
+    // The header index of a folder, kept open by the folder cache until
+    // the folder changes, or null if it has none that is up to date
+    private MailIndex openIndex(String folder) {
+        return folderCache.getIndex(folder,
+                f -> MailIndex.open(getMailStoreDir() + File.separatorChar + f));
+    }
+
+    // Returns the headers of count messages starting at start, decoding just
+    // that range from the header index when the folder is not cached.
+    public MessageInfo[] getMessages(String folder, int start, int count) {
+        MessageInfo[] infos = folderCache.peek(folder);
+        if (infos == null) {
+            MailIndex index = openIndex(folder);
+            if (index != null) {
+                int end = Math.min(index.size(), start + count);
+                MessageInfo[] page = new MessageInfo[Math.max(0, end - start)];
+                for (int i = start; i < end; i++) {
+                    MessageInfo info = index.get(i);
+                    if (info != null && !index.isCurrent(i)) {
+                        // Edited in place, the next full load updates the index
+                        info = getMessage(folder, info.getFileName());
+                    }
+                    page[i - start] = info;
+                }
+                return page;
+            }
+            // Builds the index as a side effect
+            infos = getMessages(folder);
+        }
+        int end = Math.min(infos.length, start + count);
+        return Arrays.copyOfRange(infos, Math.min(start, end), end);
+    }
+
+    // Loads the headers from the folder's header index when it is up to
+    // date, otherwise by reading every message file and then (re)writing
+    // the index. Entries marked stale by the store watcher are read again
+    // and the index is rewritten with them.
+    MessageInfo[] loadMessages(String folder) {
+        String folderPath = getMailStoreDir() + File.separatorChar + folder;
+        MailIndex index = MailIndex.open(folderPath);
         String[] files = getMessageFiles(folder);
+        MessageInfo[] infos;
+        if (index != null && index.size() == files.length) {
+            infos = index.getAll();
+            boolean stale = false;
+            for (int i = 0; i < files.length; i++) {
+                if (!index.isCurrent(i)) {
+                    infos[i] = getMessage(folder, files[i]);
+                    stale = true;
+                }
+            }
+            if (!stale) {
+                return infos;
+            }
+        } else {
+            infos = readMessages(folder, files);
+        }
+        try {
+            MailIndex.write(folderPath, infos);
+        } catch (IOException e) {
+            // A read-only store still works, just without the index.
+            System.err.println("Unable to write header index for " + folder + ": " + e);
+        }
+        return infos;
+    }
+
+    // Maximum number of message files read at the same time when a folder
+    // has to be loaded from its message files. 1 reads them one at a time.
+    private volatile int loadParallelism = Integer.getInteger("jmail.load.parallelism", 16);
+
+    public int getLoadParallelism() {
+        return loadParallelism;
+    }
+
+    public void setLoadParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1: " + parallelism);
+        }
+        loadParallelism = parallelism;
+    }
+
+    MessageInfo[] readMessages(String folder) {
+        return readMessages(folder, getMessageFiles(folder));
+    }
+
+    MessageInfo[] readMessages(String folder, String[] files) {
+        int parallelism = loadParallelism;
+        if (parallelism > 1 && files.length > 1) {
+            return readMessagesParallel(folder, files, parallelism);
+        }
         MessageInfo[] infos = new MessageInfo[files.length];
         for (int i=0; i < files.length; i++) {
             try {
@@ -106,26 +359,220 @@ public class MailStore {
         return infos;
     }
 
+    // Reads the message files on virtual threads, at most parallelism at a
+    // time. Each result goes into the slot of its msg-list.txt line, and a
+    // message that fails to load leaves its slot null as in the sequential case.
+    MessageInfo[] readMessagesParallel(String folder, String[] files, int parallelism) {
+        MessageInfo[] infos = new MessageInfo[files.length];
+        Semaphore permits = new Semaphore(parallelism);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i=0; i < files.length; i++) {
+                final int n = i;
+                permits.acquireUninterruptibly();
+                executor.execute(() -> {
+                    try {
+                        infos[n] = getMessageInfo(folder, files[n]);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } // close() waits for all reads to finish
+        return infos;
+    }
+
+    // Repeated values of the headers, see SymbolTable
+    static final SymbolTable folderPaths = new SymbolTable();
+    static final SymbolTable addresses = new SymbolTable();
+    static final SymbolTable attachmentTypes = new SymbolTable();
+
     public static class AttachmentDesc {
         public String attachmentType;
         public String attachmentName;
 
         public AttachmentDesc(String aType, String aName) {
-            attachmentType = aType;
+            attachmentType = attachmentTypes.intern(aType);
             attachmentName = aName;
         }
     }
 
+    // The datetime property of a message, "10/3/22 10:01 AM", and how dates
+    // are shown. Both are immutable and can be shared by loader threads.
+    // Two digit years fall in the 100 years up to 20 years from now, so
+    // 98 is 1998 rather than 2098
+    private static final DateTimeFormatter DATE_PARSER = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive()
+            .appendPattern("M/d/")
+            .appendValueReduced(ChronoField.YEAR, 2, 2, LocalDate.now().minusYears(80))
+            .appendPattern(" h:mm a")
+            .toFormatter(Locale.US);
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("MM/d/yy hh:mm a", Locale.US);
+
+    // Returns the datetime property as epoch milliseconds in the default
+    // time zone, or 0 if it cannot be parsed
+    public static long parseDate(String datetime) {
+        if (datetime == null || datetime.isEmpty()) {
+            return 0;
+        }
+        try {
+            return LocalDateTime.parse(datetime, DATE_PARSER)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    public static String formatDate(long date) {
+        return DATE_FORMAT.format(Instant.ofEpochMilli(date).atZone(ZoneId.systemDefault()));
+    }
+
+    /**
+     * The headers of a message, kept compact because a large folder holds
+     * a million of them.
+     * <p>
+     * The folder path, the addresses and the attachment types are shared
+     * symbols, the date and the size are longs. The strings that are different for
+     * every message, the file name, subject and body file name, stay
+     * UTF-8 encoded in a byte array that is usually shared by a whole
+     * folder, and are decoded each time they are asked for.
+     */
     public static class MessageInfo {
-        public String folderPath;
-        public String fileName;
-        public String toField;
-        public String fromField;
-        public String ccField;
-        public String subjectField;
-        public String dateField;
-        public String bodyFileField;
-        public AttachmentDesc[] attachments;
+        static final AttachmentDesc[] NO_ATTACHMENTS = new AttachmentDesc[0];
+
+        // Index of the encoded strings, see MailIndex
+        static final int FILE_NAME = 0;
+        static final int SUBJECT = 1;
+        static final int BODY_FILE = 2;
+        static final int DATE_TEXT = 3;   // Only when the date could not be parsed
+        static final int STRING_COUNT = 4;
+
+        private final String folderPath;
+        private final String toField;
+        private final String fromField;
+        private final String ccField;
+        private final long date;            // epoch milliseconds, 0 if invalid
+        private final long size;            // body and attachment files in bytes
+        private final AttachmentDesc[] attachments;
+        private final byte[] strings;
+        private final int offset;
+        private String dateText;
+
+        // Parses datetime, keeping its text only when that fails
+        static MessageInfo create(String folderPath, String fileName, String to, String from, String cc,
+                                  String subject, String datetime, String bodyFile,
+                                  AttachmentDesc[] attachments, long size) {
+            long date = parseDate(datetime);
+            byte[] strings = encode(fileName, subject, bodyFile, date == 0 ? datetime : null);
+            return new MessageInfo(folderPath, to, from, cc, date, size, attachments, strings, 0);
+        }
+
+        // Takes the STRING_COUNT strings of this message from strings at offset
+        MessageInfo(String folderPath, String to, String from, String cc, long date, long size,
+                    AttachmentDesc[] attachments, byte[] strings, int offset) {
+            this.folderPath = folderPaths.intern(folderPath);
+            this.toField = addresses.intern(to);
+            this.fromField = addresses.intern(from);
+            this.ccField = addresses.intern(cc);
+            this.date = date;
+            this.size = size;
+            this.attachments = attachments.length == 0 ? NO_ATTACHMENTS : attachments;
+            this.strings = strings;
+            this.offset = offset;
+        }
+
+        public String getFolderPath() {
+            return folderPath;
+        }
+
+        public String getFileName() {
+            return getString(FILE_NAME);
+        }
+
+        public String getTo() {
+            return toField;
+        }
+
+        public String getFrom() {
+            return fromField;
+        }
+
+        public String getCc() {
+            return ccField;
+        }
+
+        public String getSubject() {
+            return getString(SUBJECT);
+        }
+
+        // The body file name relative to the folder, or null if there is none
+        public String getBodyFile() {
+            return getString(BODY_FILE);
+        }
+
+        public long getDate() {
+            return date;
+        }
+
+        // Size of the body and the attachment files when the message was read
+        public long getSize() {
+            return size;
+        }
+
+        public AttachmentDesc[] getAttachments() {
+            return attachments;
+        }
+
+        // Returns the date as shown in message lists, formatted the first
+        // time it is asked for. Unparseable dates are shown as written.
+        public String getDateText() {
+            String text = dateText;
+            if (text == null) {
+                text = date == 0 ? Objects.requireNonNullElse(getString(DATE_TEXT), "") : formatDate(date);
+                dateText = text;
+            }
+            return text;
+        }
+
+        // Each string is a varint of its UTF-8 length + 1, 0 for null, and
+        // its bytes, the same as in the header index.
+        String getString(int index) {
+            int pos = offset;
+            for (int i = 0; ; i++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = strings[pos++];
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                int len = value - 1;
+                if (i == index) {
+                    return len < 0 ? null : new String(strings, pos, len, StandardCharsets.UTF_8);
+                }
+                pos += Math.max(len, 0);
+            }
+        }
+
+        private static byte[] encode(String... values) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+            for (String s : values) {
+                byte[] bytes = s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+                int value = bytes == null ? 0 : bytes.length + 1;
+                while ((value & ~0x7F) != 0) {
+                    out.write((value & 0x7F) | 0x80);
+                    value >>>= 7;
+                }
+                out.write(value);
+                if (bytes != null) {
+                    out.write(bytes, 0, bytes.length);
+                }
+            }
+            return out.toByteArray();
+        }
     }
 
     MessageInfo getMessageInfo(String folder, String msgFile) {
@@ -137,16 +584,6 @@ public class MailStore {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        MessageInfo info = new MessageInfo();
-
-        info.folderPath = folderPath;
-        info.fileName = msgFile;
-        info.toField = props.getProperty("to", "<empty>");
-        info.ccField = props.getProperty("cc", "");
-        info.fromField = props.getProperty("from", "");
-        info.subjectField = props.getProperty("subject", "");
-        info.dateField = props.getProperty("datetime", "");
-        info.bodyFileField = props.getProperty("body", null);
 
         List<AttachmentDesc>  attDescs = new ArrayList<AttachmentDesc>();
 
@@ -164,9 +601,23 @@ public class MailStore {
             }
             aNo++;
         } while (val != null);
-        info.attachments = attDescs.toArray(new AttachmentDesc[0]);
+        AttachmentDesc[] attachments = attDescs.toArray(MessageInfo.NO_ATTACHMENTS);
+        String bodyFile = props.getProperty("body", null);
 
-        return info;
+        // Taken once here so that lists can show sizes without touching the files
+        long size = bodyFile != null ? new File(folderPath, bodyFile).length() : 0;
+        for (AttachmentDesc d : attachments) {
+            if (!Utils.isURL(d.attachmentName)) {
+                size += new File(folderPath, d.attachmentName).length();
+            }
+        }
+        return MessageInfo.create(folderPath, msgFile,
+                props.getProperty("to", "<empty>"),
+                props.getProperty("from", ""),
+                props.getProperty("cc", ""),
+                props.getProperty("subject", ""),
+                props.getProperty("datetime", ""),
+                bodyFile, attachments, size);
     }
 
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the phases of application startup.
+ * <p>
+ * Phases started with {@link #run} execute on their own thread so that
+ * independent ones overlap; each records when it started and ended. The
+ * report is printed once the first message body is on screen, along with
+ * the time since the JVM was launched, or when startup ended without a
+ * message to show. Set {@code jmail.startup.quiet} to keep it quiet.
+ */
+public final class Startup {
+    // No instance of this class
+    private Startup() {}
+
+    private record Phase(String name, long start, long end, String thread) {}
+
+    private static final long origin = System.nanoTime();
+    private static final List<Phase> phases = new ArrayList<>();
+    private static boolean reported;
+
+    /**
+     * Runs a phase on a new thread.
+     */
+    static CompletableFuture<Void> run(String name, Runnable phase) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                time(name, phase);
+                done.complete(null);
+            } catch (Throwable e) {
+                done.completeExceptionally(e);
+            }
+        }, "JMail startup " + name);
+        t.setDaemon(true);
+        t.start();
+        return done;
+    }
+
+    /**
+     * Runs a phase on the calling thread.
+     */
+    static void time(String name, Runnable phase) {
+        long start = System.nanoTime();
+        try {
+            phase.run();
+        } finally {
+            add(new Phase(name, start, System.nanoTime(), Thread.currentThread().getName()));
+        }
+    }
+
+    private static synchronized void add(Phase phase) {
+        phases.add(phase);
+    }
+
+    /**
+     * Called whenever a message body is shown, reports the first time.
+     */
+    public static void messageShown() {
+        report("first message");
+    }
+
+    /**
+     * Reports at the end of startup if no message was shown by then.
+     */
+    static void uiReady(boolean messageExpected) {
+        if (!messageExpected) {
+            report("ui ready");
+        }
+    }
+
+    private static synchronized void report(String milestone) {
+        if (reported) {
+            return;
+        }
+        reported = true;
+        long now = System.nanoTime();
+        if (Boolean.getBoolean("jmail.startup.quiet")) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Startup phases (start +duration, ms):\n");
+        for (Phase p : phases) {
+            sb.append(String.format("  %-12s %6d +%-6d %s%n", p.name(), millis(p.start() - origin),
+                                    millis(p.end() - p.start()), p.thread()));
+        }
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        sb.append(String.format("  %s after %d ms in main, %d ms since JVM start",
+                                milestone, millis(now - origin), uptime));
+        System.out.println(sb);
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Canonical instances of strings that repeat across many messages, such
+ * as folder paths, addresses and attachment types, so that a million
+ * headers from a handful of senders hold a handful of strings.
+ * <p>
+ * Symbols are held weakly. A value goes away once no cached header uses
+ * it, so the tables shrink again when folders are dropped from the cache.
+ */
+final class SymbolTable {
+
+    private final Map<String, WeakReference<String>> symbols = new WeakHashMap<>();
+
+    synchronized String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        WeakReference<String> ref = symbols.get(s);
+        String symbol = ref != null ? ref.get() : null;
+        if (symbol == null) {
+            symbol = s;
+            symbols.put(s, new WeakReference<>(s));
+        }
+        return symbol;
+    }
+
+    synchronized int size() {
+        return symbols.size();
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Class loaders for the jars of swing and javafx attachments.
+ * <p>
+ * One loader is kept per jar, keyed by its path and a CRC-32 of its
+ * contents, so showing the same attachment again only instantiates its
+ * main class. The checksum is only recomputed when the size or time stamp
+ * of the jar changed. The least recently used loaders beyond
+ * {@code jmail.classloaders.max} are dropped, and closed as soon as every
+ * {@link Content} created from them was released, which lets their classes
+ * be unloaded. With
+ * {@code jmail.classloaders.verbose} set, opening and closing a loader
+ * prints the {@link Stats}.
+ */
+public final class ClassLoaderRegistry {
+    // No instance of this class
+    private ClassLoaderRegistry() {}
+
+    private static final int MAX_LOADERS = Integer.getInteger("jmail.classloaders.max", 8);
+    private static final boolean VERBOSE = Boolean.getBoolean("jmail.classloaders.verbose");
+
+    /** Loaders held by the registry and class and metaspace figures of the VM. */
+    public record Stats(int loaders, int opened, int closed,
+                        int loadedClasses, long unloadedClasses, long metaspaceUsed) {}
+
+    private record Entry(long length, long lastModified, long checksum,
+                         URLClassLoader loader, Class<?> mainClass, Method createContent) {}
+
+    /**
+     * The UI created from a jar attachment. It keeps the class loader of the
+     * jar open until it is released, as the UI may still load classes and
+     * resources from it.
+     */
+    public static final class Content {
+        private final Object ui;
+        private URLClassLoader loader;
+
+        private Content(Object ui, URLClassLoader loader) {
+            this.ui = ui;
+            this.loader = loader;
+        }
+
+        public Object ui() {
+            return ui;
+        }
+
+        // Called once the UI is no longer shown, releasing again does nothing
+        public void release() {
+            synchronized (ClassLoaderRegistry.class) {
+                if (loader != null) {
+                    ClassLoaderRegistry.release(loader);
+                    loader = null;
+                }
+            }
+        }
+    }
+
+    private static final LinkedHashMap<String, Entry> loaders = new LinkedHashMap<>(16, 0.75f, true);
+    // Number of unreleased contents of each loader, and the loaders that
+    // were dropped while some were left
+    private static final Map<URLClassLoader, Integer> users = new IdentityHashMap<>();
+    private static final Map<URLClassLoader, Entry> dropped = new IdentityHashMap<>();
+    private static int opened;
+    private static int closed;
+
+    /**
+     * Creates the UI of a jar attachment by calling createContent on a new
+     * instance of the class named by its Main-Class attribute. The returned
+     * content must be released when the UI is no longer shown.
+     */
+    public static Content createContent(String jarFileName) throws Exception {
+        Entry e = entryFor(jarFileName);
+        try {
+            Object o = e.mainClass().getDeclaredConstructor().newInstance();
+            return new Content(e.createContent().invoke(o), e.loader());
+        } catch (Exception | Error ex) {
+            synchronized (ClassLoaderRegistry.class) {
+                release(e.loader());
+            }
+            throw ex;
+        }
+    }
+
+    // Returns the entry of a jar with one more user of its loader
+
+    private static synchronized Entry entryFor(String jarFileName) throws Exception {
+        File jar = new File(jarFileName).getAbsoluteFile();
+        String path = jar.getPath();
+        long length = jar.length();
+        long lastModified = jar.lastModified();
+        Entry e = loaders.get(path);
+        if (e != null && (e.length() != length || e.lastModified() != lastModified)) {
+            long checksum = checksum(jar);
+            if (checksum == e.checksum()) {
+                // Touched but not changed, keep the loaded classes
+                e = new Entry(length, lastModified, checksum, e.loader(), e.mainClass(), e.createContent());
+                loaders.put(path, e);
+            } else {
+                loaders.remove(path);
+                drop(e);
+                e = null;
+            }
+        }
+        if (e == null) {
+            e = open(jar, length, lastModified);
+            loaders.put(path, e);
+        }
+        users.merge(e.loader(), 1, Integer::sum);
+        evict();
+        return e;
+    }
+
+    private static Entry open(File jar, long length, long lastModified) throws Exception {
+        long checksum = checksum(jar);
+        String mainClass;
+        try (JarFile jarFile = new JarFile(jar)) {
+            if (jarFile.getManifest() == null) {
+                throw new IOException("No manifest in " + jar);
+            }
+            Attributes attributes = jarFile.getManifest().getMainAttributes();
+            mainClass = attributes.getValue(Attributes.Name.MAIN_CLASS);
+            if (mainClass == null) {
+                throw new IOException("No Main-Class in " + jar);
+            }
+        }
+        mainClass = mainClass.replace('/', '.');
+
+        URLClassLoader loader = new URLClassLoader(new URL[] { jar.toURI().toURL() });
+        try {
+            Class<?> c = loader.loadClass(mainClass);
+            Method contentMethod = c.getMethod("createContent");
+            opened++;
+            if (VERBOSE) {
+                System.out.println("Opened class loader for " + jar + ": " + getStats());
+            }
+            return new Entry(length, lastModified, checksum, loader, c, contentMethod);
+        } catch (Exception ex) {
+            loader.close();
+            throw ex;
+        }
+    }
+
+    private static void evict() {
+        Iterator<Entry> it = loaders.values().iterator();
+        while (loaders.size() > MAX_LOADERS) {
+            Entry e = it.next();
+            it.remove();
+            drop(e);
+        }
+    }
+
+    // Closes a loader that left the registry, or leaves that to the
+    // release of its last content
+    private static void drop(Entry e) {
+        if (users.containsKey(e.loader())) {
+            dropped.put(e.loader(), e);
+        } else {
+            close(e);
+        }
+    }
+
+    private static void release(URLClassLoader loader) {
+        if (users.merge(loader, -1, Integer::sum) == 0) {
+            users.remove(loader);
+            Entry e = dropped.remove(loader);
+            if (e != null) {
+                close(e);
+            }
+        }
+    }
+
+    private static void close(Entry e) {
+        try {
+            e.loader().close();
+            closed++;
+            if (VERBOSE) {
+                System.out.println("Closed class loader for " + e.mainClass().getName() + ": " + getStats());
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    private static long checksum(File jar) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = new CheckedInputStream(Files.newInputStream(jar.toPath()), crc)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return crc.getValue();
+    }
+
+    public static synchronized Stats getStats() {
+        ClassLoadingMXBean classes = ManagementFactory.getClassLoadingMXBean();
+        long metaspace = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if ("Metaspace".equals(pool.getName())) {
+                metaspace = pool.getUsage().getUsed();
+            }
+        }
+        return new Stats(loaders.size(), opened, closed, classes.getLoadedClassCount(),
+                         classes.getUnloadedClassCount(), metaspace);
+    }
+}
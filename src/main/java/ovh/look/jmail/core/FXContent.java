@@ -29,7 +29,7 @@ import javafx.scene.Scene;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.paint.Color;
 
-public class FXContent extends JavaContent {
+public final class FXContent extends JavaContent {
 
     Scene scene;
 
@@ -40,7 +40,11 @@ public class FXContent extends JavaContent {
             var root = new BorderPane();
             scene = new Scene(root, Color.CORNSILK);
             root.setCenter(fxUI);
+            // Released when the scene is disposed
+            root.getProperties().put(JavaContent.class, this);
             jfxPanel.setScene(scene);
+        } else {
+            release();
         }
     }
 }
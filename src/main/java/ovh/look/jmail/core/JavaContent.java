@@ -23,44 +23,25 @@
 
 package ovh.look.jmail.core;
 
-import java.io.File;
-import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.Enumeration;
-import java.util.jar.Attributes;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.Manifest;
-
 public class JavaContent {
 
     protected Object theUI;
+    private ClassLoaderRegistry.Content content;
 
     public JavaContent(String jarFileName) {
         try {
-            JarFile jarFile = new JarFile(jarFileName);
-            Manifest manifest = jarFile.getManifest();
-            Attributes attributes = jarFile.getManifest().getMainAttributes();
-            String mainClass = (String)attributes.get(Attributes.Name.MAIN_CLASS);
-            mainClass = mainClass.replace('/', '.');
-            Enumeration<JarEntry> e = jarFile.entries();
-
-            File jFile = new File(jarFileName);
-            URL fileURL = jFile.toURI().toURL();
-            String jarURL = "jar:" + fileURL + "!/";
-            URL url = new URL(jarURL);
-
-            URL[] urls = { url };
-            URLClassLoader urlCl = new URLClassLoader(urls);
-
-            Class c = urlCl.loadClass(mainClass);
-            Method contentMethod = c.getMethod("createContent");
-            Object o = c.getDeclaredConstructor().newInstance();
-            theUI = contentMethod.invoke(o);
+            content = ClassLoaderRegistry.createContent(jarFileName);
+            theUI = content.ui();
         } catch (Exception e) {
             e.printStackTrace();
             return;
         }
     }
+
+    // Lets the class loader of the jar be closed once the UI is gone
+    public final void release() {
+        if (content != null) {
+            content.release();
+        }
+    }
 }
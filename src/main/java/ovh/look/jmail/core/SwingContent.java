@@ -26,13 +26,17 @@ package ovh.look.jmail.core;
 import javax.swing.*;
 import java.awt.*;
 
-public class SwingContent extends JavaContent {
+public final class SwingContent extends JavaContent {
 
     public SwingContent(JPanel panel, String jarFileName) {
         super(jarFileName);
         if (theUI instanceof JComponent swingUI) {
             panel.setLayout(new BorderLayout());
             panel.add(BorderLayout.CENTER, swingUI);
+            // Released when the panel is disposed
+            panel.putClientProperty(JavaContent.class, this);
+        } else {
+            release();
         }
     }
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.layout;
+
+import javafx.application.Platform;
+import javafx.embed.swing.JFXPanel;
+import javafx.scene.Node;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.scene.media.MediaView;
+import javafx.scene.web.WebView;
+import ovh.look.jmail.MailStore;
+import ovh.look.jmail.core.JavaContent;
+
+import javax.swing.*;
+import java.awt.*;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * LRU cache of the built attachment components of messages, keyed by
+ * folder and message file. The header and body of a {@link MessagePane}
+ * are rebound to each message, attachments are the part worth keeping.
+ * <p>
+ * The cache is bounded by the number of messages and by an estimate of the
+ * memory their components hold, decoded images and embedded JavaFX scenes
+ * being the large parts. Evicted components have their JavaFX content torn
+ * down so media players and web engines do not keep running, those still
+ * shown once their view lets go of them. Views report the components they
+ * stop showing to {@link #detached}, which also pauses the media of the
+ * ones that stay cached. Only used on the EDT.
+ */
+class AttachmentCache {
+    // No instance of this class
+    private AttachmentCache() {}
+
+    private static final int MAX_MESSAGES = Integer.getInteger("jmail.cache.attachments", 8);
+    private static final long MAX_BYTES = Long.getLong("jmail.cache.attachmentBytes", 64L << 20);
+
+    private static final JComponent[] NONE = new JComponent[0];
+
+    // Rough cost of an embedded scene, mostly its off-screen buffer
+    private static final long FX_PANEL_BYTES = 4L << 20;
+
+    private record Entry(JComponent[] components, long bytes) {}
+
+    private static final LinkedHashMap<String, Entry> messages = new LinkedHashMap<>(16, 0.75f, true);
+    private static final Set<Component> cachedComponents = Collections.newSetFromMap(new IdentityHashMap<>());
+    private static long cachedBytes;
+
+    static String key(String folderPath, String fileName) {
+        return Path.of(folderPath, fileName).normalize().toString();
+    }
+
+    // Returns the attachment components of a message, building them if
+    // they are not cached
+    static JComponent[] get(MailStore.MessageInfo msg) {
+        if (msg.getAttachments().length == 0) {
+            return NONE;
+        }
+        String fileName = msg.getFileName();
+        if (fileName == null) {
+            return build(msg);
+        }
+        String key = key(msg.getFolderPath(), fileName);
+        Entry e = messages.get(key);
+        if (e != null) {
+            return e.components();
+        }
+        JComponent[] components = build(msg);
+        long bytes = 0;
+        for (JComponent c : components) {
+            bytes += estimate(c);
+        }
+        messages.put(key, new Entry(components, bytes));
+        Collections.addAll(cachedComponents, components);
+        cachedBytes += bytes;
+        evict();
+        return components;
+    }
+
+    // Builds a panel per attachment followed by the row of attachment buttons
+    static JComponent[] build(MailStore.MessageInfo msg) {
+        MailStore.AttachmentDesc[] attachments = msg.getAttachments();
+        JComponent[] components = new JComponent[attachments.length + 1];
+        for (int i = 0; i < attachments.length; i++) {
+            components[i] = AttachmentPanel.create(msg.getFolderPath(), attachments[i]);
+        }
+        components[attachments.length] =
+                new MessagePane.AttachmentButtonPanel(msg.getFolderPath(), attachments);
+        return components;
+    }
+
+    // Drops the components of a message that changed or went away
+    static void remove(String folderPath, String fileName) {
+        Entry e = messages.remove(key(folderPath, fileName));
+        if (e != null) {
+            cachedBytes -= e.bytes();
+            dispose(e.components());
+        }
+    }
+
+    // Evicts least recently used messages, always keeping the one just shown
+    private static void evict() {
+        Iterator<Entry> it = messages.values().iterator();
+        while (messages.size() > 1 && (messages.size() > MAX_MESSAGES || cachedBytes > MAX_BYTES)) {
+            Entry e = it.next();
+            it.remove();
+            cachedBytes -= e.bytes();
+            dispose(e.components());
+        }
+    }
+
+    private static void dispose(JComponent[] components) {
+        for (JComponent c : components) {
+            cachedComponents.remove(c);
+            // Components a view is still showing are disposed when it
+            // reports them detached
+            if (c.getParent() == null) {
+                dispose(c);
+            }
+        }
+    }
+
+    // Takes the components a view stopped showing. Those of cached messages
+    // are kept with their media paused, the others were evicted while shown
+    // or never cached and are disposed.
+    static void detached(Component[] components) {
+        for (Component c : components) {
+            if (cachedComponents.contains(c)) {
+                pause(c);
+            } else {
+                dispose(c);
+            }
+        }
+    }
+
+    private static long estimate(Component c) {
+        long bytes = 0;
+        if (c instanceof AttachmentPanel.ImagePanel ip) {
+            // Still loading when the message is cached, count the largest
+            // thumbnail it can get
+            bytes += ip.image != null ? 4L * ip.image.getWidth() * ip.image.getHeight()
+                                      : 4L * ImageThumbnails.SIZE * ImageThumbnails.SIZE;
+        } else if (c instanceof JFXPanel) {
+            bytes += FX_PANEL_BYTES;
+        }
+        if (c instanceof Container container) {
+            for (Component child : container.getComponents()) {
+                bytes += estimate(child);
+            }
+        }
+        return bytes;
+    }
+
+    // Stops media and web content, detaches the scenes of a component and
+    // releases the jars its content was created from
+    static void dispose(Component c) {
+        if (c instanceof JComponent jc &&
+            jc.getClientProperty(JavaContent.class) instanceof JavaContent content) {
+            jc.putClientProperty(JavaContent.class, null);
+            content.release();
+        }
+        if (c instanceof AttachmentPanel.FXPanelLoader loader) {
+            loader.cancel();
+        }
+        if (c instanceof JFXPanel jfxPanel) {
+            Platform.runLater(() -> {
+                Scene scene = jfxPanel.getScene();
+                if (scene != null) {
+                    disposeNode(scene.getRoot());
+                    jfxPanel.setScene(null);
+                }
+            });
+        } else if (c instanceof Container container) {
+            for (Component child : container.getComponents()) {
+                dispose(child);
+            }
+        }
+    }
+
+    private static void pause(Component c) {
+        if (c instanceof JFXPanel jfxPanel) {
+            Platform.runLater(() -> {
+                Scene scene = jfxPanel.getScene();
+                if (scene != null) {
+                    pauseNode(scene.getRoot());
+                }
+            });
+        } else if (c instanceof Container container) {
+            for (Component child : container.getComponents()) {
+                pause(child);
+            }
+        }
+    }
+
+    private static void pauseNode(Node node) {
+        if (node instanceof MediaView mv && mv.getMediaPlayer() != null) {
+            mv.getMediaPlayer().pause();
+        }
+        if (node instanceof Parent p) {
+            for (Node child : p.getChildrenUnmodifiable()) {
+                pauseNode(child);
+            }
+        }
+    }
+
+    private static void disposeNode(Node node) {
+        if (node.hasProperties() &&
+            node.getProperties().remove(JavaContent.class) instanceof JavaContent content) {
+            content.release();
+        }
+        if (node instanceof MediaView mv && mv.getMediaPlayer() != null) {
+            mv.getMediaPlayer().dispose();
+        } else if (node instanceof WebView wv) {
+            wv.getEngine().load(null);
+        }
+        if (node instanceof Parent p) {
+            for (Node child : p.getChildrenUnmodifiable()) {
+                disposeNode(child);
+            }
+        }
+    }
+}
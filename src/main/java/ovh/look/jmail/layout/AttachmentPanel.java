@@ -30,19 +30,22 @@ import ovh.look.jmail.core.FXContent;
 import ovh.look.jmail.core.MediaControl;
 import ovh.look.jmail.core.SwingContent;
 import ovh.look.jmail.core.WebContent;
+import ovh.look.jmail.utils.UrlChecker;
 import ovh.look.jmail.utils.Utils;
 
-import javax.imageio.ImageIO;
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
 import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Locale;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 public class AttachmentPanel extends JComponent {
 
@@ -85,11 +88,65 @@ public class AttachmentPanel extends JComponent {
     static class ImagePanel extends JPanel {
 
         BufferedImage image;
+        transient BufferedImage scaled;
+        File file;
         int w, h;
-        ImagePanel(BufferedImage bi) {
-            this.image = bi;
-            w = image.getWidth();
-            h = image.getHeight();
+        final JLabel placeholder = new JLabel("Loading...", SwingConstants.CENTER);
+
+        // Shows a thumbnail laid out at the size of the image it was made
+        // from once it is loaded, a double click opens the image at full
+        // resolution
+        ImagePanel(File file) {
+            this.file = file;
+            setLayout(new BorderLayout());
+            add(placeholder, BorderLayout.CENTER);
+            addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    if (e.getClickCount() == 2 && image != null) {
+                        showFullSize();
+                    }
+                }
+            });
+        }
+
+        void setThumbnail(ImageThumbnails.Thumbnail thumbnail) {
+            if (thumbnail == null) {
+                placeholder.setText("Unable to read " + file.getName());
+                return;
+            }
+            remove(placeholder);
+            image = thumbnail.image();
+            scaled = null;
+            w = thumbnail.width();
+            h = thumbnail.height();
+            revalidate();
+            repaint();
+        }
+
+        void showFullSize() {
+            JLabel label = new JLabel("Loading...", SwingConstants.CENTER);
+            JFrame frame = new JFrame(file.getName());
+            frame.add(new JScrollPane(label));
+            frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+            frame.setSize(Math.min(w, 1200) + 20, Math.min(h, 900) + 40);
+            frame.setLocationRelativeTo(this);
+            frame.setVisible(true);
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return ImageThumbnails.decode(file, 0);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return null;
+                }
+            }).thenAccept(bi -> SwingUtilities.invokeLater(() -> {
+                if (bi != null) {
+                    label.setText(null);
+                    label.setIcon(new ImageIcon(bi));
+                } else {
+                    label.setText("Unable to read " + file.getName());
+                }
+            }));
         }
 
         public Dimension getPreferredSize() {
@@ -102,6 +159,9 @@ public class AttachmentPanel extends JComponent {
 
         public void paintComponent(Graphics g) {
             super.paintComponent(g);
+            if (image == null) {
+                return;
+            }
             Dimension size = getSize();
             Insets insets = getInsets();
             int dw = w - (5 * (insets.left + insets.right));
@@ -114,25 +174,48 @@ public class AttachmentPanel extends JComponent {
                 dw = (int)(dw * scale);
                 dh = (int)(dh * scale);
             }
+            if (dw <= 0 || dh <= 0) {
+                return;
+            }
             Graphics2D g2d = (Graphics2D)g;
+            // Scale once per size, in device pixels, so painting is a blit
+            double deviceScale = g2d.getTransform().getScaleX();
+            int pw = (int) Math.ceil(dw * deviceScale);
+            int ph = (int) Math.ceil(dh * g2d.getTransform().getScaleY());
+            if (scaled == null || scaled.getWidth() != pw || scaled.getHeight() != ph) {
+                scaled = prescale(pw, ph);
+            }
+            g2d.drawImage(scaled, insets.left,  insets.top, dw, dh, null);
+        }
+
+        private BufferedImage prescale(int pw, int ph) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            int transparency = image.getColorModel().getTransparency();
+            BufferedImage bi = gc != null ? gc.createCompatibleImage(pw, ph, transparency)
+                    : new BufferedImage(pw, ph, transparency == Transparency.OPAQUE ?
+                            BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g2d = bi.createGraphics();
             g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
                                  RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-            g2d.drawImage(image, insets.left,  insets.top, dw, dh, null);
+            g2d.drawImage(image, 0, 0, pw, ph, null);
+            g2d.dispose();
+            return bi;
         }
 
     }
 
+    // The thumbnail is hashed and decoded on a decoder thread, the panel
+    // shows a placeholder until then
     static JPanel createImagePanel(String fileName) {
-        try {
-            BufferedImage bi = ImageIO.read(new File(fileName));
-            if (bi == null) {
-                return null;
-            }
-            return new ImagePanel(bi);
-        } catch (IOException e) {
-            e.printStackTrace();
-           return null;
-        }
+        File file = new File(fileName);
+        ImagePanel panel = new ImagePanel(file);
+        ImageThumbnails.loadAsync(file)
+                .exceptionally(t -> {
+                    t.printStackTrace();
+                    return null;
+                })
+                .thenAccept(thumbnail -> SwingUtilities.invokeLater(() -> panel.setThumbnail(thumbnail)));
+        return panel;
     }
 
     static JPanel wrapJFXPanel(JFXPanel jfxPanel) {
@@ -164,22 +247,81 @@ public class AttachmentPanel extends JComponent {
         return jPanel;
     }
 
+    // Placeholder for an attachment whose JFXPanel is built on the FX
+    // thread, the panel replaces the label once it is ready. Loading is
+    // cancelled when the message is left before the FX thread got to it
+    // and started again when the message is shown again.
+    @SuppressWarnings("serial") // Never serialized
+    static class FXPanelLoader extends JPanel {
+
+        final String fileName;
+        final Function<String, JFXPanel> factory;
+        CompletableFuture<JFXPanel> pending;
+        boolean loaded;
+
+        FXPanelLoader(String fileName, Function<String, JFXPanel> factory) {
+            this.fileName = fileName;
+            this.factory = factory;
+            setLayout(new BorderLayout());
+            add(new JLabel("Loading...", SwingConstants.CENTER), BorderLayout.CENTER);
+            setMinimumSize(new Dimension(200, 200));
+            load();
+        }
+
+        void load() {
+            if (loaded || pending != null) {
+                return;
+            }
+            CompletableFuture<JFXPanel> f = new CompletableFuture<>();
+            pending = f;
+            // Check a remote URL first so the FX thread finds the result cached
+            CompletableFuture<Boolean> checked = Utils.isURL(fileName) ?
+                    UrlChecker.getDefault().check(fileName) :
+                    CompletableFuture.completedFuture(true);
+            checked.thenRun(() -> Platform.runLater(() -> {
+                if (f.isDone()) {
+                    return;
+                }
+                JFXPanel jfxPanel = null;
+                try {
+                    jfxPanel = factory.apply(fileName);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+                if (!f.complete(jfxPanel) && jfxPanel != null) {
+                    // Cancelled while it was being built
+                    AttachmentCache.dispose(jfxPanel);
+                }
+            }));
+            f.thenAccept(jfxPanel -> SwingUtilities.invokeLater(() -> show(jfxPanel)));
+        }
+
+        void cancel() {
+            if (pending != null && pending.cancel(false)) {
+                pending = null;
+            }
+        }
+
+        private void show(JFXPanel jfxPanel) {
+            pending = null;
+            loaded = true;
+            removeAll();
+            if (jfxPanel != null) {
+                add(jfxPanel, BorderLayout.CENTER);
+            } else {
+                add(new JLabel("Unable to load attachment", SwingConstants.CENTER), BorderLayout.CENTER);
+            }
+            revalidate();
+            repaint();
+        }
+    }
+
     private static JPanel createMediaPanel(String fileName) {
-        AtomicReference<JFXPanel> jComponent = new AtomicReference<>(null);
-        Utils.runAndWaitOnFxThread(() -> {
-            JFXPanel jfxPanel = MediaControl.createContent(fileName);
-            jComponent.set(jfxPanel);
-        });
-        return wrapJFXPanel(jComponent.get());
+        return new FXPanelLoader(fileName, MediaControl::createContent);
     }
 
     private static JPanel createWebPanel(String fileName) {
-        AtomicReference<JFXPanel> jComponent = new AtomicReference<>(null);
-        Utils.runAndWaitOnFxThread(() -> {
-            JFXPanel jfxPanel = WebContent.createContent(fileName);
-            jComponent.set(jfxPanel);
-        });
-        return wrapJFXPanel(jComponent.get());
+        return new FXPanelLoader(fileName, WebContent::createContent);
     }
 
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.layout;
+
+import ovh.look.jmail.MailStore;
+
+import javax.swing.text.Document;
+import javax.swing.text.html.HTMLEditorKit;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads and parses message bodies into HTML documents off the EDT.
+ * <p>
+ * The most recently requested bodies are kept, so that the neighbours of
+ * the shown message can be loaded ahead of time and showing them later
+ * only needs the finished document set on the editor. A body whose file
+ * the store watcher reports as changed or deleted is dropped.
+ */
+class BodyLoader {
+    // No instance of this class
+    private BodyLoader() {}
+
+    static final String UNREADABLE = "<html><body><i>Unable to read message</i></body></html>";
+
+    private static final int MAX_BODIES = 16;
+
+    private static final ExecutorService parser = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "JMail body loader");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final LinkedHashMap<String, CompletableFuture<Document>> bodies =
+            new LinkedHashMap<>(MAX_BODIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<Document>> eldest) {
+                    return size() > MAX_BODIES;
+                }
+            };
+
+    static {
+        MailStore.getMailStore().addFolderListener(BodyLoader::folderChanged);
+    }
+
+    static String bodyPath(MailStore.MessageInfo msg) {
+        return Path.of(msg.getFolderPath(), msg.getBodyFile()).toAbsolutePath().normalize().toString();
+    }
+
+    private static synchronized void folderChanged(String folder, Set<String> fileNames) {
+        Path dir = Path.of(MailStore.getMailStoreDir(), folder).toAbsolutePath().normalize();
+        for (String name : fileNames) {
+            bodies.remove(dir.resolve(name).toString());
+        }
+    }
+
+    // Returns the parsed body of a message, starting to load it if needed
+    static synchronized CompletableFuture<Document> load(MailStore.MessageInfo msg) {
+        String path = bodyPath(msg);
+        CompletableFuture<Document> body = bodies.get(path);
+        if (body == null || body.isCompletedExceptionally()) {
+            body = CompletableFuture.supplyAsync(() -> parse(path), parser);
+            bodies.put(path, body);
+        }
+        return body;
+    }
+
+    // Loads the bodies of messages likely to be shown next
+    static void prefetch(MailStore.MessageInfo... msgs) {
+        for (MailStore.MessageInfo msg : msgs) {
+            if (msg != null && msg.getBodyFile() != null) {
+                load(msg);
+            }
+        }
+    }
+
+    private static Document parse(String path) {
+        String text = UNREADABLE;
+        try {
+            text = Files.readString(Path.of(path));
+        } catch (IOException e) {
+        }
+        HTMLEditorKit kit = new HTMLEditorKit();
+        Document doc = kit.createDefaultDocument();
+        // The text is already decoded, a charset in a meta tag must not
+        // make the document reload itself
+        doc.putProperty("IgnoreCharsetDirective", Boolean.TRUE);
+        try {
+            kit.read(new StringReader(text), doc, 0);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return doc;
+    }
+}
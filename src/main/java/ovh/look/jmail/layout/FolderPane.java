@@ -30,20 +30,20 @@ import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.layout.BorderPane;
+import ovh.look.jmail.FolderModel;
 import ovh.look.jmail.MailStore;
-import ovh.look.jmail.utils.Utils;
 
 import java.awt.*;
 import java.io.File;
 import java.math.RoundingMode;
-import java.nio.file.Path;
-import java.text.DateFormat;
 import java.text.NumberFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 public class FolderPane extends JFXPanel {
 
@@ -52,12 +52,17 @@ public class FolderPane extends JFXPanel {
         boolean isFolder,     // True if this item represents a folder
         String key,           // Column 1 sort key: folder or message seq num
         String name,          // Folder name or message Subject -- used as display value
-        long size,            // Size of message including all attachments (0 for folder)
-        Date date             // Date of message (Date last modified for folder)
-    ) {}
+        long size,            // Size of message including all attachments (total of a loaded folder)
+        long date,            // Date of message (Date last modified for folder), epoch millis
+        MailStore.MessageInfo message // Headers of the message, null for a folder
+    ) {
+        // Message dates are formatted once per message, folders are few
+        String dateText() {
+            return message != null ? message.getDateText() : MailStore.formatDate(date);
+        }
+    }
 
     private static final NumberFormat nf = NumberFormat.getNumberInstance();
-    private static final DateFormat df = new SimpleDateFormat("MM/d/yy hh:mm a");
     private static final int NAME_COLUMN_WIDTH = 200;
     private static final int SIZE_COLUMN_WIDTH = 100;
     private static final int DATE_COLUMN_WIDTH = 130;
@@ -73,13 +78,22 @@ public class FolderPane extends JFXPanel {
         });
     }
 
-    private final String jmailHome = MailStore.getMailStoreDir();
+    private static final String jmailHome = MailStore.getMailStoreDir();
+
+    private transient TreeTableView<Item> treeTableView;
+
+    // Reads folders off the FX application thread. Rows are published to
+    // the tree in batches that double in size, so the first rows of a large
+    // folder show up at once and re-sorting after each batch stays cheap.
+    private static final ForkJoinPool loader =
+            new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    private static final int FIRST_BATCH_SIZE = 256;
+    private static final int MAX_BATCH_SIZE = 16384;
 
     private Parent createContent() {
         TreeItem<Item> root = createNode(".");
-        root.setExpanded(true);
 
-        final var treeTableView = new TreeTableView<Item>();
+        treeTableView = new TreeTableView<Item>();
         treeTableView.setShowRoot(false);
         treeTableView.setRoot(root);
         treeTableView.setStyle("-fx-font-size: 10pt");
@@ -111,7 +125,8 @@ public class FolderPane extends JFXPanel {
             @Override protected void updateItem(Item item, boolean empty) {
                 super.updateItem(item, empty);
 
-                if (empty || item == null || item.isFolder) {
+                // Folders show their total once their messages are loaded
+                if (empty || item == null || (item.isFolder && item.size == 0)) {
                     setText(null);
                     return;
                 }
@@ -128,21 +143,21 @@ public class FolderPane extends JFXPanel {
         sizeColumn.setComparator((Item i1, Item i2) -> Long.compare(i1.size, i2.size));
 
         // --- modified column
-        var lastModifiedColumn = new TreeTableColumn<Item, Date>("Date");
+        var lastModifiedColumn = new TreeTableColumn<Item, Item>("Date");
         lastModifiedColumn.setPrefWidth(DATE_COLUMN_WIDTH);
-        lastModifiedColumn.setCellValueFactory(p ->
-                new ReadOnlyObjectWrapper<Date>(p.getValue().getValue().date));
-        lastModifiedColumn.setCellFactory(p -> new TreeTableCell<Item, Date>() {
-            @Override protected void updateItem(Date item, boolean empty) {
+        lastModifiedColumn.setCellValueFactory(p -> new ReadOnlyObjectWrapper<Item>(p.getValue().getValue()));
+        lastModifiedColumn.setCellFactory(p -> new TreeTableCell<Item, Item>() {
+            @Override protected void updateItem(Item item, boolean empty) {
                 super.updateItem(item, empty);
 
-                if (item == null || empty) {
+                if (empty || item == null || item == LOADING_ITEM) {
                     setText(null);
                 } else {
-                    setText(df.format(item));
+                    setText(item.dateText());
                 }
             }
         });
+        lastModifiedColumn.setComparator((Item i1, Item i2) -> Long.compare(i1.date, i2.date));
 
         treeTableView.getColumns().setAll(nameColumn, sizeColumn, lastModifiedColumn);
 
@@ -157,52 +172,186 @@ public class FolderPane extends JFXPanel {
         treeTableView.getSortOrder().add(nameColumn);
         treeTableView.sort();
 
-        // Select inbox
+        // Loads the top level folders in the background
+        root.setExpanded(true);
+
+        return treeTableView;
+    }
+
+    // Called once the top level folders are in the tree
+    private void rootLoaded(TreeItem<Item> root) {
+        // Select and open inbox
         root.getChildren().stream()
                 .filter(item -> "inbox".equalsIgnoreCase(item.getValue().name))
                 .findFirst()
                 .ifPresent(item -> {
                     treeTableView.getSelectionModel().select(item);
+                    item.setExpanded(true);
                 });
-
-        return treeTableView;
     }
 
-    // Create a node for a given folder, this will process any sub-folders,
-    // and read the messsage list
-    private TreeItem<Item> createNode(final String folderPath) {
+    // Placeholder row shown under a folder until it is first expanded.
+    // Marked as a folder so that the size column stays blank.
+    private static final Item LOADING_ITEM = new Item(null, true, "", "Loading...", 0, 0, null);
 
-        // Recursively create sub-folders
-        final var children = new ArrayList<TreeItem<Item>>();
-        File folder = new File(jmailHome, folderPath);
-        File[] files = folder.listFiles();
-        if (files != null) {
-            for (var file : files) {
-                if (file.isDirectory()) {
-                    TreeItem<Item> child;
-                    if (".".equals(folderPath)) {
-                        child = createNode(file.getName());
-                    } else {
-                        child = createNode(folderPath + File.separator + file.getName());
-                    }
-                    children.add(child);
+    // A folder whose sub-folders and messages are only read the first time
+    // it is expanded, so startup only has to list the top level folders.
+    // The reading happens on a loader thread, see loadFolder. Afterwards the
+    // item follows its FolderModel, adding, removing or replacing single rows.
+    private class FolderItem extends TreeItem<Item> implements FolderModel.Listener {
+        private boolean loaded;
+
+        // Message rows in msg-list.txt order: the row of the message whose
+        // key is messageKey(i) is at i, so folder events find their rows here
+        private final ArrayList<TreeItem<Item>> messageRows = new ArrayList<>();
+
+        // Folder events not yet applied, guarded by itself. A burst of
+        // events is applied in one go by a single runLater.
+        private final ArrayList<Runnable> queued = new ArrayList<>();
+        private boolean rowsLoaded;   // FX thread only
+
+        // What the changes being applied did to the rows, FX thread only
+        private final Set<TreeItem<Item>> added = new LinkedHashSet<>();
+        private final Set<TreeItem<Item>> removed = new HashSet<>();
+        private int renumberFrom = Integer.MAX_VALUE;
+        private long batchTotalSize = -1;
+
+        FolderItem(Item item) {
+            super(item);
+            getChildren().add(new TreeItem<>(LOADING_ITEM));
+            expandedProperty().addListener((obs, wasExpanded, isExpanded) -> {
+                if (isExpanded) {
+                    loadChildren();
                 }
+            });
+        }
+
+        private void loadChildren() {
+            if (loaded) {
+                return;
             }
+            loaded = true;
+            String folderPath = getValue().folderPath();
+            loader.execute(() -> loadFolder(this, folderPath));
         }
 
-        // Read messages if msg-list.txt is present
-        File msgListFile = new File(folder, "msg-list.txt");
-        if (msgListFile.canRead()) {
-            MailStore.MessageInfo[] messageInfos = MailStore.getMailStore()
-                    .getMessages(folderPath);
-            int seqNum = 0;
-            for (var messageInfo : messageInfos) {
-                TreeItem<Item> child = createNode(folderPath, seqNum, messageInfo);
-                children.add(child);
-                seqNum++;
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+
+        // Shows the total size of the messages, kept up to date by the model
+        private void setTotalSize(long totalSize) {
+            Item item = getValue();
+            if (totalSize >= 0 && totalSize != item.size()) {
+                setValue(new Item(item.folderPath(), true, item.key(), item.name(),
+                                  totalSize, item.date(), null));
             }
         }
 
+        public void messageAdded(FolderModel.FolderEvent e) {
+            enqueue(() -> {
+                batchTotalSize = e.totalSize();
+                var row = createNode(getValue().folderPath(), e.index(), e.message());
+                messageRows.add(e.index(), row);
+                added.add(row);
+                renumberFrom = Math.min(renumberFrom, e.index() + 1);
+            });
+        }
+
+        public void messageRemoved(FolderModel.FolderEvent e) {
+            enqueue(() -> {
+                batchTotalSize = e.totalSize();
+                drop(messageRows.remove(e.index()));
+                renumberFrom = Math.min(renumberFrom, e.index());
+            });
+        }
+
+        public void messageUpdated(FolderModel.FolderEvent e) {
+            enqueue(() -> {
+                batchTotalSize = e.totalSize();
+                var row = createNode(getValue().folderPath(), e.index(), e.message());
+                drop(messageRows.set(e.index(), row));
+                added.add(row);
+            });
+        }
+
+        // A row added by the same batch never made it into the tree
+        private void drop(TreeItem<Item> row) {
+            if (!added.remove(row)) {
+                removed.add(row);
+            }
+        }
+
+        // Gives the rows from index on the keys of their new positions, so
+        // that sorting on the name column keeps msg-list.txt order
+        private void renumber(int index) {
+            for (int i = index; i < messageRows.size(); i++) {
+                var row = messageRows.get(i);
+                Item item = row.getValue();
+                row.setValue(new Item(item.folderPath(), false, messageKey(i), item.name(),
+                                      item.size(), item.date(), item.message()));
+            }
+        }
+
+        private void enqueue(Runnable change) {
+            boolean first;
+            synchronized (queued) {
+                first = queued.isEmpty();
+                queued.add(change);
+            }
+            if (first) {
+                Platform.runLater(this::applyQueued);
+            }
+        }
+
+        // Applies the queued events on the FX thread, once all rows are in.
+        // Renumbering keeps the relative order of the rows already shown
+        // whatever the sort column, so the children stay sorted and only the
+        // new rows need a place, found by binary search instead of a sort.
+        private void applyQueued() {
+            if (!rowsLoaded) {
+                return;   // rowsComplete comes back for them
+            }
+            ArrayList<Runnable> changes;
+            synchronized (queued) {
+                changes = new ArrayList<>(queued);
+                queued.clear();
+            }
+            changes.forEach(Runnable::run);
+            if (renumberFrom < messageRows.size()) {
+                renumber(renumberFrom);
+            }
+            setTotalSize(batchTotalSize);
+
+            var children = getChildren();
+            if (!removed.isEmpty()) {
+                children.removeAll(removed);
+            }
+            var order = treeTableView.getComparator();
+            for (var row : added) {
+                int at = order == null ? children.size()
+                                       : Collections.binarySearch(children, row, order);
+                children.add(at < 0 ? -at - 1 : at, row);
+            }
+            added.clear();
+            removed.clear();
+            renumberFrom = Integer.MAX_VALUE;
+            batchTotalSize = -1;
+        }
+
+        // Called on the FX thread once all rows are in
+        private void rowsComplete() {
+            rowsLoaded = true;
+            applyQueued();
+        }
+    }
+
+    // Create a node for a given folder. Its sub-folders and messages are
+    // created when the node is expanded.
+    private TreeItem<Item> createNode(final String folderPath) {
+        File folder = new File(jmailHome, folderPath);
+
         // Create item for this folder
         var path = folder.toPath();
         var folderName = path.getFileName().toString();
@@ -227,39 +376,86 @@ public class FolderPane extends JFXPanel {
             default:
                 key = "FOLDER99-" + folderName;
         }
-        var lastModified = new Date(folder.lastModified());
-        Item item = new Item(folderPath, true, key, folderName, 0, lastModified);
-        final TreeItem<Item> node = new TreeItem<Item>(item) {
-            {
-                getChildren().setAll(children);
+        Item item = new Item(folderPath, true, key, folderName, 0, folder.lastModified(), null);
+        return new FolderItem(item);
+    }
+
+    // Create the child nodes of a folder on a loader thread: first one per
+    // sub-folder, then one per message if msg-list.txt is present
+    private void loadFolder(FolderItem node, final String folderPath) {
+        final var folders = new ArrayList<TreeItem<Item>>();
+        File folder = new File(jmailHome, folderPath);
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (var file : files) {
+                if (file.isDirectory()) {
+                    TreeItem<Item> child;
+                    if (".".equals(folderPath)) {
+                        child = createNode(file.getName());
+                    } else {
+                        child = createNode(folderPath + File.separator + file.getName());
+                    }
+                    folders.add(child);
+                }
             }
+        }
+        publish(node, folders, true, false);
 
-            @Override
-            public boolean isLeaf() {
-                return false;
+        // Read messages if msg-list.txt is present
+        File msgListFile = new File(folder, "msg-list.txt");
+        if (msgListFile.canRead()) {
+            var model = MailStore.getMailStore().getFolderModel(folderPath);
+            MailStore.MessageInfo[] messageInfos = model.addListenerAndGetMessages(node);
+            long totalSize = model.getTotalSize();
+            Platform.runLater(() -> node.setTotalSize(totalSize));
+            int batchSize = FIRST_BATCH_SIZE;
+            int seqNum = 0;
+            while (seqNum < messageInfos.length) {
+                int end = Math.min(messageInfos.length, seqNum + batchSize);
+                final var messages = new ArrayList<TreeItem<Item>>(end - seqNum);
+                for (; seqNum < end; seqNum++) {
+                    messages.add(createNode(folderPath, seqNum, messageInfos[seqNum]));
+                }
+                publish(node, messages, false, true);
+                batchSize = Math.min(batchSize * 2, MAX_BATCH_SIZE);
             }
-        };
-        return node;
+        }
+        Platform.runLater(node::rowsComplete);
     }
 
-    private TreeItem<Item> createNode(String folderPath, int seqNum, MailStore.MessageInfo messageInfo) {
-        var key = String.format("MSG-%04d", seqNum);
-        var date = new Date(0);
-        try {
-            date = df.parse(messageInfo.dateField);
-        } catch (ParseException ex) {
-            System.err.println(ex);
-        }
-        var msgPath = Path.of(jmailHome, folderPath, messageInfo.bodyFileField);
-        var size = msgPath.toFile().length();
-        for (var attachment : messageInfo.attachments) {
-            if (!Utils.isURL(attachment.attachmentName)) {
-                var attPath = Path.of(jmailHome, folderPath, attachment.attachmentName);
-                size += attPath.toFile().length();
+    // Add loaded rows to a folder on the FX application thread, replacing
+    // the placeholder with the first batch, and keep the sort order
+    private void publish(FolderItem node, ArrayList<TreeItem<Item>> items,
+                         boolean first, boolean messages) {
+        Platform.runLater(() -> {
+            if (first) {
+                node.getChildren().setAll(items);
+            } else {
+                node.getChildren().addAll(items);
+            }
+            if (messages) {
+                node.messageRows.addAll(items);
             }
+            treeTableView.sort();
+            if (first && node == treeTableView.getRoot()) {
+                rootLoaded(node);
+            }
+        });
+    }
+
+    // Wide enough that string order is numeric order for any folder size
+    static String messageKey(int seqNum) {
+        return String.format("MSG-%010d", seqNum);
+    }
+
+    static TreeItem<Item> createNode(String folderPath, int seqNum, MailStore.MessageInfo messageInfo) {
+        var key = messageKey(seqNum);
+        if (messageInfo == null) {
+            // The message file could not be read
+            return new TreeItem<Item>(new Item(folderPath, false, key, "", 0, 0, null));
         }
-        Item item = new Item(folderPath, false,
-                key, messageInfo.subjectField, size, date);
+        Item item = new Item(folderPath, false, key, messageInfo.getSubject(),
+                messageInfo.getSize(), messageInfo.getDate(), messageInfo);
         var node = new TreeItem<Item>(item) {
             @Override
             public boolean isLeaf() {
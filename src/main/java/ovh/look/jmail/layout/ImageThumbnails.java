@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.layout;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Decodes image attachments at the size they are displayed at.
+ * <p>
+ * Images are decoded off the EDT with source subsampling so that only about
+ * the pixels needed for the message area are read, then scaled down to fit
+ * and kept as image files in an on-disk cache keyed by the SHA-256 of the
+ * image file. So that a cached thumbnail is found without reading the whole
+ * image, it is also linked under a key made of the path, modification time
+ * and length of the file, which is looked up first; the link of an older
+ * version of the file is deleted then. The cache lives in
+ * {@code ~/.cache/jmail/thumbnails} unless {@code jmail.thumbnails.dir}
+ * says otherwise; it is kept out of the mail store so writing it does not
+ * look like a change to a folder.
+ * <p>
+ * The cache holds at most {@code jmail.thumbnails.megabytes}, 256 MB by
+ * default. Thumbnails are touched when used, and once it grows past that
+ * the least recently used ones are deleted until it is down to three
+ * quarters of it. Writing and pruning happen on a thread of their own.
+ */
+class ImageThumbnails {
+    // No instance of this class
+    private ImageThumbnails() {}
+
+    /** A thumbnail together with the size of the image it was made from. */
+    record Thumbnail(BufferedImage image, int width, int height) {}
+
+    // Wide enough for the message area on the screen's scale
+    static final int SIZE = (int) (MessagesArea.PREFERRED_WIDTH * screenScale());
+
+    // Opaque thumbnails are stored as JPEG, which encodes several times faster
+    private static final String[] FORMATS = { "jpg", "png" };
+
+    private static final ExecutorService decoder = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "JMail thumbnail decoder");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final Path cacheDir = Path.of(System.getProperty("jmail.thumbnails.dir",
+            Path.of(System.getProperty("user.home"), ".cache", "jmail", "thumbnails").toString()));
+
+    private static final long maxBytes = Integer.getInteger("jmail.thumbnails.megabytes", 256) * 1024L * 1024L;
+
+    // Stores and prunes the cache, one change at a time
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "JMail thumbnail cache");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Bytes in the cache, writer thread only
+    private static long cachedBytes;
+
+    static {
+        writer.execute(ImageThumbnails::prune);
+    }
+
+    private static double screenScale() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return 1;
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+                .getDefaultConfiguration().getDefaultTransform().getScaleX();
+    }
+
+    /**
+     * Loads a thumbnail on a decoder thread, completing with null if the
+     * file is not a readable image.
+     */
+    static CompletableFuture<Thumbnail> loadAsync(File file) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return load(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, decoder);
+    }
+
+    /**
+     * Returns a thumbnail of at most SIZE x SIZE pixels, from the cache if
+     * there is one, or null if the file is not a readable image.
+     */
+    static Thumbnail load(File file) throws IOException {
+        int[] size = readSize(file);
+        if (size == null) {
+            return null;
+        }
+        String fileKey = fileKey(file);
+        BufferedImage thumb = readCached(fileKey);
+        if (thumb != null) {
+            return new Thumbnail(thumb, size[0], size[1]);
+        }
+        // The same image may be cached for another file, a copy of it
+        String key = contentKey(file);
+        for (String format : FORMATS) {
+            thumb = readCached(key, format);
+            if (thumb != null) {
+                String found = format;
+                writer.execute(() -> link(fileKey, key, found));
+                return new Thumbnail(thumb, size[0], size[1]);
+            }
+        }
+        thumb = scaleToFit(decode(file, SIZE), SIZE);
+        if (thumb == null) {
+            return null;
+        }
+        // Encoding is not needed to show the thumbnail, so do it later
+        BufferedImage image = thumb;
+        String format = thumb.getColorModel().hasAlpha() ? "png" : "jpg";
+        writer.execute(() -> {
+            if (store(cacheDir.resolve(key + "." + format), format, image)) {
+                link(fileKey, key, format);
+                if (cachedBytes > maxBytes) {
+                    prune();
+                }
+            }
+        });
+        return new Thumbnail(thumb, size[0], size[1]);
+    }
+
+    private static BufferedImage readCached(String key) throws IOException {
+        for (String format : FORMATS) {
+            BufferedImage thumb = readCached(key, format);
+            if (thumb != null) {
+                return thumb;
+            }
+        }
+        return null;
+    }
+
+    private static BufferedImage readCached(String key, String format) throws IOException {
+        Path cached = cacheDir.resolve(key + "." + format);
+        if (!Files.isRegularFile(cached)) {
+            return null;
+        }
+        BufferedImage thumb = ImageIO.read(cached.toFile());
+        try {
+            // Marks it as used, for pruning
+            Files.setLastModifiedTime(cached, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Pruned meanwhile, or a read-only cache
+        }
+        return thumb;
+    }
+
+    /**
+     * Decodes an image reading only every n-th pixel and row, with n as
+     * large as it can be while the larger dimension of the result still
+     * covers maxSize. A maxSize of 0 decodes the full resolution.
+     */
+    static BufferedImage decode(File file, int maxSize) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (maxSize > 0) {
+                    int sub = Math.max(1, Math.max(reader.getWidth(0), reader.getHeight(0)) / maxSize);
+                    param.setSourceSubsampling(sub, sub, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    // Reads the dimensions from the image header only
+    private static int[] readSize(File file) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return new int[] { reader.getWidth(0), reader.getHeight(0) };
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scaleToFit(BufferedImage image, int maxSize) {
+        if (image == null) {
+            return null;
+        }
+        int w = image.getWidth();
+        int h = image.getHeight();
+        double scale = Math.min(1, (double) maxSize / Math.max(w, h));
+        int tw = Math.max(1, (int) (w * scale));
+        int th = Math.max(1, (int) (h * scale));
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB
+                                                    : BufferedImage.TYPE_INT_RGB;
+        BufferedImage thumb = new BufferedImage(tw, th, type);
+        Graphics2D g = thumb.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                           RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, tw, th, null);
+        g.dispose();
+        return thumb;
+    }
+
+    private static MessageDigest sha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    // Key of the contents of the image file, which needs all of it read
+    private static String contentKey(File file) throws IOException {
+        MessageDigest md = sha256();
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file.toPath()), md)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return HexFormat.of().formatHex(md.digest()) + "-" + SIZE;
+    }
+
+    // Key of the image file as it is now, from its attributes only: the
+    // hash of its path, then its modification time and length
+    private static String fileKey(File file) throws IOException {
+        MessageDigest md = sha256();
+        byte[] path = file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+        return "f-" + HexFormat.of().formatHex(md.digest(path)) + "-" +
+               Long.toHexString(file.lastModified()) + "-" + Long.toHexString(file.length()) + "-" + SIZE;
+    }
+
+    // Makes the thumbnail stored under key findable under fileKey as well,
+    // in place of the links of other versions of the same file
+    private static void link(String fileKey, String key, String format) {
+        Path target = cacheDir.resolve(key + "." + format);
+        Path link = cacheDir.resolve(fileKey + "." + format);
+        String samePath = fileKey.substring(0, fileKey.indexOf('-', 2) + 1);
+        try (DirectoryStream<Path> old = Files.newDirectoryStream(cacheDir, samePath + "*")) {
+            for (Path p : old) {
+                if (!p.equals(link)) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to remove old thumbnails of " + link + ": " + e);
+        }
+        try {
+            Files.deleteIfExists(link);
+            try {
+                Files.createLink(link, target);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(target, link, StandardCopyOption.REPLACE_EXISTING);
+                cachedBytes += Files.size(link);
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to cache thumbnail " + link + ": " + e);
+        }
+    }
+
+    // Written to a temporary name and moved so readers never see part of a file
+    private static boolean store(Path cached, String format, BufferedImage thumb) {
+        try {
+            Files.createDirectories(cacheDir);
+            Path tmp = Files.createTempFile(cacheDir, "thumb", ".tmp");
+            try {
+                ImageIO.write(thumb, format, tmp.toFile());
+                cachedBytes += Files.size(tmp);
+                Files.move(tmp, cached, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+            return true;
+        } catch (IOException e) {
+            System.err.println("Unable to cache thumbnail " + cached + ": " + e);
+            return false;
+        }
+    }
+
+    // The names of one thumbnail, hard links of each other
+    private static final class Thumb {
+        final long size;
+        final List<Path> names = new ArrayList<>();
+        long used;
+
+        Thumb(long size) {
+            this.size = size;
+        }
+    }
+
+    // Counts the bytes in the cache and, if they are more than allowed,
+    // deletes the least recently used thumbnails with all their names until
+    // they are down to three quarters of that
+    private static void prune() {
+        Map<Object, Thumb> thumbs = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(cacheDir)) {
+            for (Path p : dir) {
+                if (p.getFileName().toString().endsWith(".tmp")) {
+                    continue;   // Being written
+                }
+                BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                if (!attrs.isRegularFile()) {
+                    continue;
+                }
+                Object id = attrs.fileKey() != null ? attrs.fileKey() : p;
+                Thumb thumb = thumbs.get(id);
+                if (thumb == null) {
+                    thumb = new Thumb(attrs.size());
+                    thumbs.put(id, thumb);
+                    total += attrs.size();
+                }
+                thumb.names.add(p);
+                thumb.used = Math.max(thumb.used, attrs.lastModifiedTime().toMillis());
+            }
+        } catch (NoSuchFileException e) {
+            // Nothing cached yet
+        } catch (IOException e) {
+            System.err.println("Unable to prune thumbnail cache " + cacheDir + ": " + e);
+        }
+        if (total > maxBytes) {
+            List<Thumb> oldestFirst = new ArrayList<>(thumbs.values());
+            oldestFirst.sort(Comparator.comparingLong(t -> t.used));
+            for (Thumb thumb : oldestFirst) {
+                if (total <= maxBytes / 4 * 3) {
+                    break;
+                }
+                try {
+                    for (Path p : thumb.names) {
+                        Files.deleteIfExists(p);
+                    }
+                    total -= thumb.size;
+                } catch (IOException e) {
+                    System.err.println("Unable to prune thumbnail " + thumb.names + ": " + e);
+                }
+            }
+        }
+        cachedBytes = total;
+    }
+}
@@ -24,31 +24,75 @@
 package ovh.look.jmail.layout;
 
 import ovh.look.jmail.MailStore;
+import ovh.look.jmail.Startup;
 
 import javax.swing.*;
+import javax.swing.text.Document;
 import java.awt.*;
-import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
 
 public class MessageBody extends JPanel {
 
-    String text = "<html><body><i>Unable to read message</i></body></html>";
+    static final String LOADING = "<html><body><i>Loading...</i></body></html>";
 
-    public MessageBody(MailStore.MessageInfo messageInfo) {
-        String fileName = messageInfo.folderPath + File.separatorChar + messageInfo.bodyFileField;
-        Path filePath = Path.of(fileName);
-        try {
-            text = Files.readString(filePath);
-        } catch (IOException e) {
+    JEditorPane msg;
+    transient Document loading;
+    transient Document unreadable;
+    transient Document empty;
+    transient MailStore.MessageInfo current;
 
-        }
+    public MessageBody() {
         setBackground(Color.white);
         setMinimumSize(new Dimension(800, 600));
         setLayout(new BorderLayout());
-        JEditorPane msg = new JEditorPane("text/html", text);
+        msg = new JEditorPane("text/html", LOADING);
         msg.setEditable(false);
+        loading = msg.getDocument();
         add(BorderLayout.CENTER, msg);
     }
+
+    public MessageBody(MailStore.MessageInfo messageInfo) {
+        this();
+        setMessage(messageInfo);
+    }
+
+    // Shows a placeholder until the body has been read and parsed by the
+    // BodyLoader, then swaps in the parsed document unless another message
+    // was set in the meantime
+    public void setMessage(MailStore.MessageInfo messageInfo) {
+        current = messageInfo;
+        if (messageInfo.getBodyFile() == null) {
+            if (unreadable == null) {
+                msg.setText(BodyLoader.UNREADABLE);
+                unreadable = msg.getDocument();
+            }
+            msg.setDocument(unreadable);
+            return;
+        }
+        CompletableFuture<Document> body = BodyLoader.load(messageInfo);
+        Document doc = body.getNow(null);
+        if (doc != null) {
+            msg.setDocument(doc);
+            Startup.messageShown();
+            return;
+        }
+        msg.setDocument(loading);
+        body.thenAccept(d -> SwingUtilities.invokeLater(() -> {
+            if (current == messageInfo) {
+                msg.setDocument(d);
+                Startup.messageShown();
+            }
+        }));
+    }
+
+    // Shows an empty body, a pending load for the previous message is
+    // dropped as it no longer matches the current one
+    public void clear() {
+        current = null;
+        if (empty == null) {
+            msg.setText("");
+            empty = msg.getDocument();
+        }
+        msg.setDocument(empty);
+    }
 }
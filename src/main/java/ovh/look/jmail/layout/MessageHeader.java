@@ -35,33 +35,39 @@ public class MessageHeader extends JPanel {
     String subjectStr;
     String dateStr;
 
-    public MessageHeader(MailStore.MessageInfo msgInfo) {
+    JLabel fromText = new JLabel();
+    JLabel toText = new JLabel();
+    JLabel ccText = new JLabel();
+    JLabel subjText = new JLabel();
+    JLabel dateText = new JLabel();
+
+    public MessageHeader() {
 
         GridBagLayout layout = new GridBagLayout();
         this.setLayout(layout);
         setBackground(Color.lightGray);
 
-        JLabel fromText = new JLabel(msgInfo.fromField);
         JLabel fL = new JLabel("From: ");
         addPair(fL, fromText, layout);
 
-        JLabel toText = new JLabel(msgInfo.toField);
         JLabel tL = new JLabel("To: ");
         addPair(tL, toText, layout);
 
-        JLabel ccText = new JLabel(msgInfo.ccField);
         JLabel cL = new JLabel("Cc: ");
         addPair(cL, ccText, layout);
 
-        JLabel subjText = new JLabel(msgInfo.subjectField);
         JLabel sL = new JLabel("Subject: ");
         addPair(sL, subjText, layout);
 
-        JLabel dateText = new JLabel(msgInfo.dateField);
         JLabel dL = new JLabel("Date: ");
         addPair(dL, dateText, layout);
     }
 
+    public MessageHeader(MailStore.MessageInfo msgInfo) {
+        this();
+        setContent(msgInfo);
+    }
+
     public Insets getInsets() {
         return new Insets(10,10,10,10);
     }
@@ -89,5 +95,20 @@ public class MessageHeader extends JPanel {
         this.toStr = toStr;
         this.subjectStr = subjectStr;
         this.dateStr = dateStr;
+        fromText.setText(fromStr);
+        toText.setText(toStr);
+        subjText.setText(subjectStr);
+        dateText.setText(dateStr);
+    }
+
+    public void setContent(MailStore.MessageInfo msgInfo) {
+        setContent(msgInfo.getFrom(), msgInfo.getTo(),
+                   msgInfo.getSubject(), msgInfo.getDateText());
+        ccText.setText(msgInfo.getCc());
+    }
+
+    public void clear() {
+        setContent("", "", "", "");
+        ccText.setText("");
     }
 }
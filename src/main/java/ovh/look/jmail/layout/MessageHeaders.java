@@ -28,6 +28,8 @@ import ovh.look.jmail.MailStore;
 import javax.swing.*;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
+import javax.swing.event.TableModelEvent;
+import javax.swing.table.TableModel;
 import java.awt.*;
 
 public class MessageHeaders extends JScrollPane implements ListSelectionListener {
@@ -35,16 +37,19 @@ public class MessageHeaders extends JScrollPane implements ListSelectionListener
     MessagesArea msgArea;
     MessageHeadersTable headersTable;
     String folderName;
-    MailStore.MessageInfo[] messages;
+    MessageHeadersModel model;
     int messageNumber = 0;
+    // The selected row was still being read when the pane was updated
+    boolean currentPending;
 
     MessageHeaders(String folder, MessagesArea msgArea) {
         this.folderName = folder;
         this.msgArea = msgArea;
-        messages = MailStore.getMailStore().getMessages(folder);
         try {
-            headersTable = createMessageHeaders(messages);
+            model = new MessageHeadersModel(folder);
+            headersTable = new MessageHeadersTable(model);
             headersTable.getSelectionModel().addListSelectionListener(this);
+            model.addTableModelListener(this::rowsChanged);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -52,13 +57,28 @@ public class MessageHeaders extends JScrollPane implements ListSelectionListener
     }
 
     public void valueChanged(ListSelectionEvent event) {
+        // -1 once the selected row is deleted, the pane is then cleared
         messageNumber = headersTable.getSelectedRow();
         msgArea.updateMessagePane();
     }
 
+    // Shows the selected message once the page holding it is read
+    private void rowsChanged(TableModelEvent e) {
+        if (currentPending && e.getType() == TableModelEvent.UPDATE
+                && e.getFirstRow() <= messageNumber && messageNumber <= e.getLastRow()) {
+            msgArea.updateMessagePane();
+        }
+    }
+
+    MailStore.MessageInfo getMessage(int row) {
+        return model != null ? model.getMessage(row) : null;
+    }
+
     public MailStore.MessageInfo getCurrentMessage() {
-        if (messages != null && messages.length > messageNumber) {
-            return messages[messageNumber];
+        if (model != null) {
+            MailStore.MessageInfo msg = model.getMessage(messageNumber);
+            currentPending = msg == null && model.isLoading(messageNumber);
+            return msg;
         } else {
             return null;
         }
@@ -74,7 +94,7 @@ public class MessageHeaders extends JScrollPane implements ListSelectionListener
     }
 
     public void nextMessage() {
-        if (messageNumber < messages.length -1) {
+        if (messageNumber < model.getRowCount() -1) {
             messageNumber +=1;
             headersTable.setRowSelectionInterval(messageNumber, messageNumber);
             headersTable.invalidate();
@@ -91,28 +111,17 @@ public class MessageHeaders extends JScrollPane implements ListSelectionListener
             return false;
         };
 
-        MessageHeadersTable(Object[][] data, Object[] columns) {
-            super(data, columns);
+        MessageHeadersTable(TableModel model) {
+            super(model);
             setRowSelectionAllowed(true);
             setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
-            setRowSelectionInterval(0, 0);
+            if (model.getRowCount() > 0) {
+                setRowSelectionInterval(0, 0);
+            }
             setShowVerticalLines(true);
+            // A fixed row height lets JTable find visible rows by arithmetic
+            FontMetrics fm = getFontMetrics(getFont());
+            setRowHeight(fm.getHeight() + 4);
         }
     }
-    private MessageHeadersTable createMessageHeaders(MailStore.MessageInfo[] msgs) {
-
-        Object[][] data = new Object[msgs.length][];
-        for (int i=0; i<data.length; i++) {
-            Object[] msg = new Object[3];
-            msg[0] = msgs[i].subjectField;
-            msg[1] = msgs[i].fromField;
-            msg[2] = msgs[i].dateField;
-            data[i] = msg;
-        };
-
-        String[] columns = { "Subject", "From", "Date" };
-
-        MessageHeadersTable headers = new MessageHeadersTable(data, columns);
-        return headers;
-    }
 }
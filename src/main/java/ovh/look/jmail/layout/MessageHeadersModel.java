@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.layout;
+
+import ovh.look.jmail.FolderModel;
+import ovh.look.jmail.MailStore;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Table model for the message list of a folder that reads rows from the
+ * MailStore a page at a time. Only the most recently used pages stay
+ * resident, each holding its messages and their formatted cell values.
+ * A page that is not resident is read on a loader thread, its rows show
+ * empty until it arrives and are then repainted.
+ * <p>
+ * Changes to the folder arrive from its {@link FolderModel} and touch only
+ * the affected row.
+ */
+@SuppressWarnings("serial") // Never serialized
+class MessageHeadersModel extends AbstractTableModel implements FolderModel.Listener {
+
+    static final int PAGE_SIZE = 256;
+    static final int MAX_PAGES = 16;
+
+    private static final String[] COLUMNS = { "Subject", "From", "Date" };
+
+    record Page(MailStore.MessageInfo[] messages, String[][] cells) {}
+
+    private static final String[] LOADING = { "", "", "" };
+
+    private static final ExecutorService loader = Executors.newFixedThreadPool(1, r -> {
+        Thread t = new Thread(r, "JMail header pages");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final String folder;
+    private int rowCount;
+    // Bumped on every change to the folder, a page read before it is dropped
+    private int generation;
+    private final Set<Integer> loading = new HashSet<>();
+    private final LinkedHashMap<Integer, Page> pages =
+            new LinkedHashMap<>(MAX_PAGES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                    return size() > MAX_PAGES;
+                }
+            };
+
+    MessageHeadersModel(String folder) {
+        this.folder = folder;
+        this.rowCount = MailStore.getMailStore().getFolderModel(folder).addListener(this);
+    }
+
+    private String folderPath() {
+        return MailStore.getMailStoreDir() + File.separatorChar + folder;
+    }
+
+    public void messageAdded(FolderModel.FolderEvent e) {
+        SwingUtilities.invokeLater(() -> {
+            rowCount++;
+            generation++;
+            dropPagesFrom(e.index());
+            fireTableRowsInserted(e.index(), e.index());
+        });
+    }
+
+    public void messageRemoved(FolderModel.FolderEvent e) {
+        SwingUtilities.invokeLater(() -> {
+            rowCount--;
+            generation++;
+            dropPagesFrom(e.index());
+            AttachmentCache.remove(folderPath(), e.fileName());
+            fireTableRowsDeleted(e.index(), e.index());
+        });
+    }
+
+    public void messageUpdated(FolderModel.FolderEvent e) {
+        SwingUtilities.invokeLater(() -> {
+            AttachmentCache.remove(folderPath(), e.fileName());
+            generation++;
+            Page page = pages.get(e.index() / PAGE_SIZE);
+            if (page != null) {
+                int i = e.index() % PAGE_SIZE;
+                page.messages[i] = e.message();
+                page.cells[i] = cellsOf(e.message());
+            }
+            fireTableRowsUpdated(e.index(), e.index());
+        });
+    }
+
+    // Rows at and after row moved, so the pages holding them are re-read
+    private void dropPagesFrom(int row) {
+        int first = row / PAGE_SIZE;
+        pages.keySet().removeIf(pageNo -> pageNo >= first);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    public Class<?> getColumnClass(int column) {
+        return String.class;
+    }
+
+    public Object getValueAt(int row, int column) {
+        Page page = getPage(row);
+        return page != null ? page.cells[row % PAGE_SIZE][column] : LOADING[column];
+    }
+
+    /**
+     * Returns the message of a row, or null when its page is still being
+     * read, the row is then updated once it is.
+     */
+    MailStore.MessageInfo getMessage(int row) {
+        if (row < 0 || row >= rowCount) {
+            return null;
+        }
+        Page page = getPage(row);
+        return page != null ? page.messages[row % PAGE_SIZE] : null;
+    }
+
+    boolean isLoading(int row) {
+        return loading.contains(row / PAGE_SIZE);
+    }
+
+    private Page getPage(int row) {
+        int pageNo = row / PAGE_SIZE;
+        Page page = pages.get(pageNo);
+        if (page == null && loading.add(pageNo)) {
+            int gen = generation;
+            int count = rowCount;
+            loader.execute(() -> {
+                Page loaded = loadPage(pageNo, count);
+                SwingUtilities.invokeLater(() -> pageLoaded(pageNo, gen, loaded));
+            });
+        }
+        return page;
+    }
+
+    private void pageLoaded(int pageNo, int gen, Page page) {
+        loading.remove(pageNo);
+        if (gen == generation) {
+            pages.put(pageNo, page);
+        }
+        // A page read before a change is asked for again when repainted
+        int first = pageNo * PAGE_SIZE;
+        int last = Math.min(first + PAGE_SIZE, rowCount) - 1;
+        if (first <= last) {
+            fireTableRowsUpdated(first, last);
+        }
+    }
+
+    Page loadPage(int pageNo, int count) {
+        MailStore.MessageInfo[] msgs = MailStore.getMailStore()
+                .getMessages(folder, pageNo * PAGE_SIZE, PAGE_SIZE);
+        // The folder may have shrunk since the row count was taken
+        int len = Math.max(0, Math.min(PAGE_SIZE, count - pageNo * PAGE_SIZE));
+        if (msgs.length < len) {
+            msgs = Arrays.copyOf(msgs, len);
+        }
+        String[][] cells = new String[len][];
+        for (int i = 0; i < len; i++) {
+            cells[i] = cellsOf(msgs[i]);
+        }
+        return new Page(msgs, cells);
+    }
+
+    private static String[] cellsOf(MailStore.MessageInfo msg) {
+        if (msg == null) {
+            return new String[] { "", "", "" };
+        }
+        return new String[] { msg.getSubject(), msg.getFrom(), msg.getDateText() };
+    }
+}
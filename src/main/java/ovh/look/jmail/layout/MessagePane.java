@@ -35,17 +35,25 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 
 public class MessagePane extends JPanel {
 
     MessageHeader messageHeader;
     MessageBody messageBody;
-
-    public MessagePane(MailStore.MessageInfo msg) {
-        messageHeader = new MessageHeader(msg);
-        messageBody = new MessageBody(msg);
-
-        GridBagLayout mpLayout = new GridBagLayout();
+    JPanel attachmentPanel;
+    GridBagLayout mpLayout;
+    GridBagConstraints attachmentConstraints;
+
+    // A long lived view, setMessage rebinds the header, body and
+    // attachments instead of building new components
+    public MessagePane() {
+        messageHeader = new MessageHeader();
+        messageBody = new MessageBody();
+        attachmentPanel = new JPanel(new GridBagLayout());
+
+        mpLayout = new GridBagLayout();
         this.setLayout(mpLayout);
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.fill = GridBagConstraints.HORIZONTAL;
@@ -59,21 +67,81 @@ public class MessagePane extends JPanel {
         gbc.weightx = 1;
         gbc.weighty = 1;
         mpLayout.setConstraints(messageBody, gbc);
+        attachmentConstraints = (GridBagConstraints) gbc.clone();
+        mpLayout.setConstraints(attachmentPanel, attachmentConstraints);
 
         add(messageHeader);
         add(messageBody);
+        add(attachmentPanel);
+    }
 
-        JComponent c;
-        for (MailStore.AttachmentDesc d : msg.attachments) {
-            c = AttachmentPanel.create(msg.folderPath, d);
-            mpLayout.setConstraints(c, gbc);
-            add(c);
+    public MessagePane(MailStore.MessageInfo msg) {
+        this();
+        setMessage(msg);
+    }
+
+    public void setMessage(MailStore.MessageInfo msg) {
+        if (msg == null) {
+            // Empty folder, or the selected message went away
+            clear();
+            return;
         }
+        messageHeader.setContent(msg);
+        messageBody.setMessage(msg);
+
+        JComponent[] parts = AttachmentCache.get(msg);
+        if (parts.length > 0 && parts[0].getParent() != null &&
+            parts[0].getParent() != attachmentPanel) {
+            // Shown by another view, a component can only have one parent
+            parts = AttachmentCache.build(msg);
+        }
+        Component[] shown = attachmentPanel.getComponents();
+        for (Component c : shown) {
+            if (c instanceof AttachmentPanel.FXPanelLoader loader) {
+                loader.cancel();
+            }
+        }
+        attachmentPanel.removeAll();
+        List<Component> kept = Arrays.asList(parts);
+        AttachmentCache.detached(Arrays.stream(shown)
+                .filter(c -> !kept.contains(c))
+                .toArray(Component[]::new));
+        GridBagLayout layout = (GridBagLayout) attachmentPanel.getLayout();
+        for (JComponent c : parts) {
+            if (c instanceof AttachmentPanel.FXPanelLoader loader) {
+                loader.load();
+            }
+            layout.setConstraints(c, attachmentConstraints);
+            attachmentPanel.add(c);
+        }
+        // Share the height with the body as the separate panels used to
+        attachmentConstraints.weighty = msg.getAttachments().length;
+        mpLayout.setConstraints(attachmentPanel, attachmentConstraints);
+        attachmentConstraints.weighty = 1;
+
+        revalidate();
+        repaint();
+    }
 
-        c = new AttachmentButtonPanel(msg.folderPath, msg.attachments);
+    // Shows no message at all
+    public void clear() {
+        messageHeader.clear();
+        messageBody.clear();
+        clearAttachments();
+        revalidate();
+        repaint();
+    }
 
-        mpLayout.setConstraints(c, gbc);
-        add(c);
+    // Lets go of the attachments when the view goes away for good
+    public void clearAttachments() {
+        Component[] shown = attachmentPanel.getComponents();
+        for (Component c : shown) {
+            if (c instanceof AttachmentPanel.FXPanelLoader loader) {
+                loader.cancel();
+            }
+        }
+        attachmentPanel.removeAll();
+        AttachmentCache.detached(shown);
     }
 
     static class AttachmentButtonPanel extends JPanel implements ActionListener {
@@ -23,6 +23,8 @@
 
 package ovh.look.jmail.layout;
 
+import ovh.look.jmail.MailStore;
+
 import javax.swing.*;
 import java.awt.*;
 
@@ -58,9 +60,17 @@ public class MessagesArea extends JSplitPane {
     }
 
     public void updateMessagePane() {
-        messagePane = new MessagePane(messageHeaders.getCurrentMessage());
-        sPane.setViewportView(messagePane);
-        invalidate();
+        MailStore.MessageInfo msg = messageHeaders.getCurrentMessage();
+        messagePane.setMessage(msg);
+        sPane.getViewport().setViewPosition(new Point(0, 0));
+        if (msg == null) {
+            return;
+        }
+
+        // Have the neighbours ready for next and previous
+        int n = messageHeaders.messageNumber;
+        BodyLoader.prefetch(messageHeaders.getMessage(n + 1), messageHeaders.getMessage(n - 1),
+                            messageHeaders.getMessage(n + 2), messageHeaders.getMessage(n - 2));
     }
 
 }
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.layout;
+
+import ovh.look.jmail.MailStore;
+import ovh.look.jmail.search.SearchEngine;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Window listing the messages that match a search, with the selected
+ * message shown below the list. Results are added as the search engine
+ * finds them.
+ */
+@SuppressWarnings("serial") // Never serialized
+public class SearchResults extends JSplitPane {
+
+    public enum Mode {
+        WORDS("All words"),
+        SUBSTRING("Header contains"),
+        FUZZY("Header contains, 1 typo");
+
+        private final String label;
+
+        Mode(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private static final String[] COLUMNS = { "Subject", "From", "Date", "Folder" };
+
+    private final ResultsModel model = new ResultsModel();
+    private final JTable table = new JTable(model);
+    private final JScrollPane messageScroller = new JScrollPane();
+    private MessagePane preview;
+    private final JLabel status = new JLabel("Searching...");
+    private Future<?> search;
+
+    public static void show(String query, Mode mode) {
+        JFrame frame = new JFrame("Search: " + query);
+        SearchResults results = new SearchResults(query, mode);
+        frame.setLayout(new BorderLayout());
+        frame.add(results, BorderLayout.CENTER);
+        frame.add(results.status, BorderLayout.SOUTH);
+        frame.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                results.search.cancel(true);
+                if (results.preview != null) {
+                    results.preview.clearAttachments();
+                }
+            }
+        });
+        frame.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+        frame.setSize(MessagesArea.PREFERRED_WIDTH, 700);
+        frame.setLocationRelativeTo(null);
+        frame.setVisible(true);
+    }
+
+    SearchResults(String query, Mode mode) {
+        super(JSplitPane.VERTICAL_SPLIT, true);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.setShowVerticalLines(true);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            int row = table.getSelectedRow();
+            if (!e.getValueIsAdjusting() && row >= 0) {
+                if (preview == null) {
+                    preview = new MessagePane(model.results.get(row));
+                    messageScroller.setViewportView(preview);
+                } else {
+                    preview.setMessage(model.results.get(row));
+                }
+            }
+        });
+        setTopComponent(new JScrollPane(table));
+        setBottomComponent(messageScroller);
+        setDividerLocation(200);
+
+        long start = System.nanoTime();
+        var listener = new SearchEngine.Results() {
+            public void found(List<MailStore.MessageInfo> messages) {
+                SwingUtilities.invokeLater(() -> model.add(messages));
+            }
+
+            public void done(int count) {
+                long ms = (System.nanoTime() - start) / 1_000_000;
+                SwingUtilities.invokeLater(() ->
+                        status.setText(count + " messages found in " + ms + " ms"));
+            }
+        };
+        var engine = SearchEngine.getSearchEngine();
+        search = switch (mode) {
+            case WORDS -> engine.search(query, listener);
+            case SUBSTRING -> engine.searchSubstring(query, 0, listener);
+            case FUZZY -> engine.searchSubstring(query, 1, listener);
+        };
+    }
+
+    static class ResultsModel extends AbstractTableModel {
+        final ArrayList<MailStore.MessageInfo> results = new ArrayList<>();
+
+        void add(List<MailStore.MessageInfo> messages) {
+            int first = results.size();
+            results.addAll(messages);
+            fireTableRowsInserted(first, results.size() - 1);
+        }
+
+        public int getRowCount() {
+            return results.size();
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            MailStore.MessageInfo msg = results.get(row);
+            return switch (column) {
+                case 0 -> msg.getSubject();
+                case 1 -> msg.getFrom();
+                case 2 -> msg.getDateText();
+                default -> new File(msg.getFolderPath()).getName();
+            };
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.mbox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Where the decoded content of a MIME part goes: a file, possibly through
+ * a transcoder to UTF-8 and an HTML escaper for plain text bodies.
+ */
+abstract class ByteSink {
+
+    abstract void write(byte[] b, int off, int len) throws IOException;
+
+    abstract void close() throws IOException;
+
+    void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Writes to file through buffer, which the caller may hand to the next
+     * file once this one is closed.
+     */
+    static ByteSink toFile(Path file, ByteBuffer buffer) throws IOException {
+        return new FileSink(file, buffer);
+    }
+
+    // Wraps plain text in a pre element, escaping &, < and >
+    static ByteSink textAsHtml(ByteSink next) throws IOException {
+        next.write(HtmlEscaper.START);
+        return new HtmlEscaper(next);
+    }
+
+    // Converts from charset to UTF-8, or returns next if there is nothing to do
+    static ByteSink toUtf8(Charset charset, ByteSink next) {
+        if (charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)) {
+            return next;
+        }
+        return new Transcoder(charset, next);
+    }
+
+    private static final class FileSink extends ByteSink {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+
+        FileSink(Path file, ByteBuffer buffer) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                                            StandardOpenOption.TRUNCATE_EXISTING);
+            this.buffer = buffer.clear();
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) throws IOException {
+            if (len >= buffer.capacity()) {
+                flush();
+                ByteBuffer src = ByteBuffer.wrap(b, off, len);
+                while (src.hasRemaining()) {
+                    channel.write(src);
+                }
+                return;
+            }
+            if (len > buffer.remaining()) {
+                flush();
+            }
+            buffer.put(b, off, len);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static final class HtmlEscaper extends ByteSink {
+        private static final byte[] AMP = "&amp;".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] LT = "&lt;".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] GT = "&gt;".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] START = "<html><body><pre>\n".getBytes(StandardCharsets.US_ASCII);
+        private static final byte[] END = "</pre></body></html>\n".getBytes(StandardCharsets.US_ASCII);
+
+        private final ByteSink next;
+
+        HtmlEscaper(ByteSink next) {
+            this.next = next;
+        }
+
+        // The escaped bytes are ASCII, never part of a UTF-8 sequence
+        @Override
+        void write(byte[] b, int off, int len) throws IOException {
+            int run = off;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                byte[] entity = switch (b[i]) {
+                    case '&' -> AMP;
+                    case '<' -> LT;
+                    case '>' -> GT;
+                    default -> null;
+                };
+                if (entity != null) {
+                    next.write(b, run, i - run);
+                    next.write(entity);
+                    run = i + 1;
+                }
+            }
+            next.write(b, run, end - run);
+        }
+
+        @Override
+        void close() throws IOException {
+            next.write(END);
+            next.close();
+        }
+    }
+
+    private static final class Transcoder extends ByteSink {
+        private final CharsetDecoder decoder;
+        private final ByteBuffer in = ByteBuffer.allocate(8192);
+        private final CharBuffer chars = CharBuffer.allocate(8192);
+        private final ByteSink next;
+
+        Transcoder(Charset charset, ByteSink next) {
+            this.decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            this.next = next;
+        }
+
+        @Override
+        void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(in.remaining(), len);
+                in.put(b, off, n);
+                off += n;
+                len -= n;
+                in.flip();
+                decode(false);
+                in.compact();
+            }
+        }
+
+        private void decode(boolean end) throws IOException {
+            while (true) {
+                boolean overflow = decoder.decode(in, chars, end).isOverflow();
+                if (end && !overflow) {
+                    overflow = decoder.flush(chars).isOverflow();
+                }
+                chars.flip();
+                next.write(chars.toString().getBytes(StandardCharsets.UTF_8));
+                chars.clear();
+                if (!overflow) {
+                    return;
+                }
+            }
+        }
+
+        @Override
+        void close() throws IOException {
+            in.flip();
+            decode(true);
+            next.close();
+        }
+    }
+}
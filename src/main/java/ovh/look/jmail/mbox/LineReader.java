@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.mbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a file line by line through a FileChannel and one fixed size
+ * buffer, without decoding anything.
+ * <p>
+ * After {@link #next} the current line is {@code bytes[start, start + length)}
+ * without its line terminator ("\n" or "\r\n"). A line longer than the
+ * buffer comes in pieces: {@link #eol} is false for all but the last one
+ * and {@link #lineStart} is true only for the first, so memory stays
+ * bounded whatever the input looks like.
+ */
+final class LineReader implements Closeable {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final long size;
+    private long consumed;      // file position of buffer index 0
+    private int scan;           // start of the next line in the buffer
+    private boolean eof;
+
+    final byte[] bytes;
+    int start;
+    int length;
+    boolean eol = true;
+    boolean lineStart;
+
+    LineReader(FileChannel channel, int bufferSize) throws IOException {
+        this(channel, ByteBuffer.allocate(bufferSize));
+    }
+
+    // Reads through buffer, which can be reused once this reader is closed
+    LineReader(FileChannel channel, ByteBuffer buffer) throws IOException {
+        this.channel = channel;
+        this.buffer = buffer.clear().flip();
+        this.bytes = buffer.array();
+        this.size = channel.size();
+    }
+
+    long size() {
+        return size;
+    }
+
+    // Bytes of the file handed out so far
+    long position() {
+        return consumed + scan;
+    }
+
+    boolean next() throws IOException {
+        lineStart = eol;
+        while (true) {
+            int limit = buffer.limit();
+            for (int i = scan; i < limit; i++) {
+                if (bytes[i] == '\n') {
+                    start = scan;
+                    length = (i > scan && bytes[i - 1] == '\r' ? i - 1 : i) - scan;
+                    eol = true;
+                    scan = i + 1;
+                    return true;
+                }
+            }
+            if (eof) {
+                if (scan == limit) {
+                    return false;
+                }
+                start = scan;
+                length = limit - scan;
+                eol = true;
+                scan = limit;
+                return true;
+            }
+            if (scan == 0 && limit == buffer.capacity()) {
+                // No end of line in a full buffer, hand out what we have.
+                // A trailing '\r' is kept back in case '\n' follows.
+                int end = bytes[limit - 1] == '\r' ? limit - 1 : limit;
+                start = 0;
+                length = end;
+                eol = false;
+                scan = end;
+                return true;
+            }
+            fill();
+        }
+    }
+
+    // Moves the unread part to the front of the buffer and reads more
+    private void fill() throws IOException {
+        consumed += scan;
+        buffer.position(scan);
+        buffer.compact();
+        scan = 0;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.mbox;
+
+import ovh.look.jmail.MailStore;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Imports an mbox file into a folder of the mail store, or exports a
+ * folder to an mbox file, from the command line. Folders are relative to
+ * the store, see MailStore.getMailStoreDir().
+ * <pre>
+ *   java -cp target/classes ovh.look.jmail.mbox.Mbox import archive.mbox lists/openjfx-dev
+ *   java -cp target/classes ovh.look.jmail.mbox.Mbox export lists/openjfx-dev archive.mbox
+ * </pre>
+ */
+public class Mbox {
+    // No instance of this class
+    private Mbox() {}
+
+    // Prints how far we got on one line, overwritten by the next update
+    private static MboxProgress printer(long startNanos) {
+        return (bytes, totalBytes, messages) -> {
+            double seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+            System.err.printf("\r%3d%%  %,d MB  %,d messages  %,.0f MB/s",
+                              totalBytes > 0 ? bytes * 100 / totalBytes : 100,
+                              bytes >> 20, messages, bytes / seconds / (1 << 20));
+        };
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.err.println("usage: Mbox import MBOX FOLDER");
+            System.err.println("       Mbox export FOLDER MBOX");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        int count;
+        if (args[0].equals("import")) {
+            count = new MboxImporter(Path.of(MailStore.getMailStoreDir(), args[2]))
+                    .progress(printer(start))
+                    .importFrom(Path.of(args[1]));
+        } else {
+            count = new MboxExporter(MailStore.getMailStore())
+                    .progress(printer(start))
+                    .export(args[1], Path.of(args[2]));
+        }
+        System.err.printf("%n%sed %d messages in %d ms%n", args[0].equals("import") ? "Import" : "Export",
+                          count, (System.nanoTime() - start) / 1_000_000);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.mbox;
+
+import ovh.look.jmail.MailStore;
+import ovh.look.jmail.utils.Utils;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Writes the messages of a MailStore folder to an mbox file (mboxrd), in
+ * the form {@link MboxImporter} reads back.
+ * <p>
+ * Headers are taken a page at a time from the store, so a folder that has
+ * a header index is never loaded whole, and the body and attachment files
+ * are streamed into one large buffer that is written to the mbox when
+ * full. A message without attachments is a single text/html part; the
+ * others are multipart/mixed with the attachment files in base64 and the
+ * URL attachments as message/external-body parts. The MailStore type of
+ * each attachment goes in an X-JMail-Type header.
+ */
+public class MboxExporter {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int PAGE_SIZE = 1024;
+    private static final int BASE64_CHUNK = 57 * 1024;   // 1024 lines of 76 characters
+    private static final byte[] NEWLINE = { '\n' };
+    private static final byte[] QUOTE = { '>' };
+
+    private final MailStore store;
+    private MboxProgress progress = MboxProgress.NONE;
+
+    private final ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer fileBuffer = ByteBuffer.allocate(64 * 1024);
+    private final byte[] raw = new byte[BASE64_CHUNK];
+    private final byte[] base64 = new byte[BASE64_CHUNK * 4 / 3 + BASE64_CHUNK / 57 + 4];
+    private final Base64.Encoder encoder = Base64.getMimeEncoder(76, NEWLINE);
+    private FileChannel channel;
+    private long boundaries;
+
+    public MboxExporter(MailStore store) {
+        this.store = store;
+    }
+
+    public MboxExporter progress(MboxProgress progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * Writes all messages of folder, a path relative to the store, to mbox,
+     * replacing it, and returns how many there were.
+     */
+    public int export(String folder, Path mbox) throws IOException {
+        int count = store.getMessageCount(folder);
+        long totalBytes = 0;
+        for (int start = 0; start < count; start += PAGE_SIZE) {
+            for (MailStore.MessageInfo info : store.getMessages(folder, start, PAGE_SIZE)) {
+                totalBytes += info != null ? info.getSize() : 0;
+            }
+        }
+        long bytes = 0;
+        int written = 0;
+        try (FileChannel ch = FileChannel.open(mbox, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                               StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel = ch;
+            out.clear();
+            for (int start = 0; start < count; start += PAGE_SIZE) {
+                for (MailStore.MessageInfo info : store.getMessages(folder, start, PAGE_SIZE)) {
+                    if (info != null) {
+                        write(info);
+                        bytes += info.getSize();
+                        written++;
+                    }
+                }
+                progress.update(bytes, totalBytes, written);
+            }
+            flush();
+        } finally {
+            channel = null;
+        }
+        return written;
+    }
+
+    private void write(MailStore.MessageInfo info) throws IOException {
+        Path dir = Path.of(info.getFolderPath());
+        String from = info.getFrom();
+        String sender = MimeHeaders.address(from);
+        put("From " + (sender != null ? sender : "MAILER-DAEMON") + " " +
+            MimeHeaders.formatFromLineDate(info.getDate()) + "\n");
+        header("From", from);
+        if (!info.getTo().equals("<empty>")) {
+            // What MailStore shows for a message without to
+            header("To", info.getTo());
+        }
+        header("Cc", info.getCc());
+        header("Subject", info.getSubject());
+        if (info.getDate() != 0) {
+            header("Date", MimeHeaders.formatDate(info.getDate()));
+        } else if (!info.getDateText().isEmpty()) {
+            header("Date", info.getDateText());
+        }
+        put("MIME-Version: 1.0\n");
+
+        MailStore.AttachmentDesc[] attachments = info.getAttachments();
+        String boundary = null;
+        if (attachments.length > 0) {
+            // "=_" cannot appear in base64 or quoted-printable text
+            boundary = "=_jmail_" + Long.toHexString(++boundaries);
+            put("Content-Type: multipart/mixed; boundary=\"" + boundary + "\"\n\n");
+            put("--" + boundary + "\n");
+        }
+        put("Content-Type: text/html; charset=UTF-8\nContent-Transfer-Encoding: 8bit\n\n");
+        String bodyFile = info.getBodyFile();
+        if (bodyFile != null) {
+            copyBody(dir.resolve(bodyFile));
+        }
+        for (MailStore.AttachmentDesc d : attachments) {
+            String name = d.attachmentName;
+            if (Utils.isURL(name)) {
+                put("--" + boundary + "\n");
+                put("Content-Type: message/external-body; access-type=URL; URL=\"" + name + "\"\n");
+                put("X-JMail-Type: " + d.attachmentType + "\n\n");
+                put("Content-Type: text/html\n\n");
+                continue;
+            }
+            Path file = dir.resolve(name);
+            if (!Files.isReadable(file)) {
+                System.err.println("Skipping missing attachment " + file);
+                continue;
+            }
+            String fileName = quote(MimeHeaders.encodeWords(file.getFileName().toString()));
+            String type = URLConnection.guessContentTypeFromName(name);
+            put("--" + boundary + "\n");
+            put("Content-Type: " + (type != null ? type : "application/octet-stream") +
+                "; name=" + fileName + "\n");
+            put("Content-Disposition: attachment; filename=" + fileName + "\n");
+            put("Content-Transfer-Encoding: base64\n");
+            put("X-JMail-Type: " + d.attachmentType + "\n\n");
+            copyBase64(file);
+        }
+        if (boundary != null) {
+            put("--" + boundary + "--\n");
+        }
+        put(NEWLINE);
+    }
+
+    private void header(String name, String value) throws IOException {
+        if (value != null && !value.isEmpty()) {
+            put(name + ": " + MimeHeaders.encodeWords(value.replaceAll("[\r\n]+", " ")) + "\n");
+        }
+    }
+
+    private static String quote(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    // Copies the body line by line, quoting "From " lines the mboxrd way
+    private void copyBody(Path file) throws IOException {
+        if (!Files.isReadable(file)) {
+            System.err.println("Skipping missing body " + file);
+            return;
+        }
+        try (LineReader in = new LineReader(FileChannel.open(file, StandardOpenOption.READ), fileBuffer)) {
+            while (in.next()) {
+                if (in.lineStart && needsQuote(in.bytes, in.start, in.length)) {
+                    put(QUOTE);
+                }
+                put(in.bytes, in.start, in.length);
+                if (in.eol) {
+                    put(NEWLINE);
+                }
+            }
+        }
+    }
+
+    private static boolean needsQuote(byte[] b, int off, int len) {
+        int i = off;
+        int end = off + len;
+        while (i < end && b[i] == '>') {
+            i++;
+        }
+        return end - i >= 5 && b[i] == 'F' && b[i + 1] == 'r' && b[i + 2] == 'o' &&
+               b[i + 3] == 'm' && b[i + 4] == ' ';
+    }
+
+    private void copyBase64(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer chunk = ByteBuffer.wrap(raw);
+            boolean eof = false;
+            while (!eof) {
+                while (chunk.hasRemaining()) {
+                    if (in.read(chunk) < 0) {
+                        eof = true;
+                        break;
+                    }
+                }
+                if (chunk.position() > 0) {
+                    byte[] src = chunk.hasRemaining() ? Arrays.copyOf(raw, chunk.position()) : raw;
+                    put(base64, 0, encoder.encode(src, base64));
+                    put(NEWLINE);
+                }
+                chunk.clear();
+            }
+        }
+    }
+
+    private void put(String s) throws IOException {
+        put(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void put(byte[] b) throws IOException {
+        put(b, 0, b.length);
+    }
+
+    private void put(byte[] b, int off, int len) throws IOException {
+        while (len > out.remaining()) {
+            int n = out.remaining();
+            out.put(b, off, n);
+            off += n;
+            len -= n;
+            flush();
+        }
+        out.put(b, off, len);
+    }
+
+    private void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.mbox;
+
+import ovh.look.jmail.MailStore;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Converts an mbox file into messages of a MailStore folder.
+ * <p>
+ * The mbox is read once, line by line, through a single buffer, and every
+ * MIME part is decoded straight into its file, so memory does not depend
+ * on the size of the mbox or of its messages. The first HTML or plain text
+ * part of a message becomes its msgN-body.html, in UTF-8, and the other
+ * parts become msgN-&lt;name&gt; attachments. New messages are numbered after
+ * the ones already in the folder, and their names are appended to
+ * msg-list.txt once per batch, after their files are complete, so the
+ * store watcher sees whole messages a batch at a time.
+ * <p>
+ * A "From " line starts a message only at the start of the file or after
+ * a blank line. Body lines quoted the mboxrd way, "&gt;From ", "&gt;&gt;From "
+ * and so on, lose one '&gt;'. An importer is not thread safe.
+ */
+public class MboxImporter {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final Pattern MSG_FILE = Pattern.compile("msg(\\d+)\\.txt");
+    private static final byte[] FROM = "From ".getBytes(StandardCharsets.US_ASCII);
+
+    private final Path folder;
+    private int batchSize = 1000;
+    private MboxProgress progress = MboxProgress.NONE;
+
+    // Shared by the part files, only one is open at a time
+    private final ByteBuffer fileBuffer = ByteBuffer.allocate(64 * 1024);
+
+    /**
+     * Creates an importer into the folder directory, which is created
+     * with its msg-list.txt if needed.
+     */
+    public MboxImporter(Path folder) {
+        this.folder = folder;
+    }
+
+    // Messages written between two msg-list.txt updates
+    public MboxImporter batchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1: " + batchSize);
+        }
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    public MboxImporter progress(MboxProgress progress) {
+        this.progress = progress;
+        return this;
+    }
+
+    /**
+     * Imports all messages of mbox and returns how many there were.
+     */
+    public int importFrom(Path mbox) throws IOException {
+        Files.createDirectories(folder);
+        Path msgList = folder.resolve("msg-list.txt");
+        int next = lastMessageNumber(msgList) + 1;
+        StringBuilder batch = new StringBuilder(batchSize * 16);
+        int batched = 0;
+        int count = 0;
+        try (LineReader in = new LineReader(FileChannel.open(mbox, StandardOpenOption.READ), BUFFER_SIZE)) {
+            Message message = null;
+            boolean afterBlank = true;
+            while (in.next()) {
+                if (in.lineStart && afterBlank && startsWith(in.bytes, in.start, in.length, FROM)) {
+                    if (message != null) {
+                        batch.append(message.finish()).append('\n');
+                        count++;
+                        if (++batched == batchSize) {
+                            append(msgList, batch);
+                            batched = 0;
+                            progress.update(in.position(), in.size(), count);
+                        }
+                    }
+                    while (Files.exists(folder.resolve("msg" + next + ".txt"))) {
+                        next++;
+                    }
+                    message = new Message(next++, new String(in.bytes, in.start, in.length, StandardCharsets.UTF_8));
+                    afterBlank = false;
+                    continue;
+                }
+                afterBlank = in.eol && in.lineStart && in.length == 0;
+                if (message != null) {
+                    message.line(in);
+                }
+            }
+            if (message != null) {
+                batch.append(message.finish()).append('\n');
+                count++;
+            }
+            append(msgList, batch);
+            progress.update(in.size(), in.size(), count);
+        }
+        return count;
+    }
+
+    private static int lastMessageNumber(Path msgList) throws IOException {
+        int last = 0;
+        if (Files.exists(msgList)) {
+            for (String line : Files.readAllLines(msgList)) {
+                Matcher m = MSG_FILE.matcher(line.strip());
+                if (m.matches() && m.group(1).length() < 10) {
+                    last = Math.max(last, Integer.parseInt(m.group(1)));
+                }
+            }
+        }
+        return last;
+    }
+
+    // Adds the names of a batch of complete messages in one write
+    private static void append(Path msgList, StringBuilder names) throws IOException {
+        try (FileChannel channel = FileChannel.open(msgList, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer bytes = ByteBuffer.wrap(names.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+        names.setLength(0);
+    }
+
+    private static boolean startsWith(byte[] b, int off, int len, byte[] prefix) {
+        if (len < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[off + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ">From ", ">>From " and so on, quoted by the exporter
+    private static boolean isQuotedFrom(byte[] b, int off, int len) {
+        int i = off;
+        int end = off + len;
+        while (i < end && b[i] == '>') {
+            i++;
+        }
+        return i > off && startsWith(b, i, end - i, FROM);
+    }
+
+    private static boolean isBoundary(byte[] b, int off, int len, byte[] boundary, boolean close) {
+        if (!startsWith(b, off, len, boundary)) {
+            return false;
+        }
+        int i = off + boundary.length;
+        int end = off + len;
+        if (close) {
+            if (end - i < 2 || b[i] != '-' || b[i + 1] != '-') {
+                return false;
+            }
+            i += 2;
+        }
+        while (i < end && (b[i] == ' ' || b[i] == '\t')) {
+            i++;
+        }
+        return i == end;
+    }
+
+    // The attachment types of MailStore, see AttachmentPanel
+    private static String attachmentType(MimeHeaders h, String mediaType) {
+        String type = h.get("x-jmail-type");
+        if (type != null && !type.isBlank()) {
+            return type.strip();
+        }
+        if (mediaType.startsWith("image/")) {
+            return "image";
+        } else if (mediaType.startsWith("audio/") || mediaType.startsWith("video/")) {
+            return "media";
+        } else if (mediaType.equals("text/html")) {
+            return "web";
+        } else if (mediaType.startsWith("text/")) {
+            return "text";
+        }
+        return "other";
+    }
+
+    // Properties files read \, line ends and leading blanks specially
+    private static void property(StringBuilder sb, String key, String value) {
+        sb.append(key).append('=');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                case ' ' -> sb.append(i == 0 ? "\\ " : " ");
+                default -> sb.append(c);
+            }
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * One message being read. The message headers are read first, then
+     * each MIME part: its headers, and its content into a PartDecoder, or
+     * nowhere for multipart preambles, epilogues and external bodies.
+     */
+    private final class Message {
+        private final int number;
+        private final String fromLine;
+        private MimeHeaders headers;
+        private MimeHeaders partHeaders = new MimeHeaders();
+        private final Deque<byte[]> boundaries = new ArrayDeque<>();
+        private PartDecoder content;
+        private boolean pendingBlank;
+        private String bodyFile;
+        private boolean htmlBody;
+        private final List<String[]> attachments = new ArrayList<>();
+        private final Set<String> names = new HashSet<>();
+
+        Message(int number, String fromLine) {
+            this.number = number;
+            this.fromLine = fromLine;
+            // Taken by the body even if it comes after an attachment of that name
+            names.add(bodyFileName());
+        }
+
+        private String bodyFileName() {
+            return "msg" + number + "-body.html";
+        }
+
+        void line(LineReader in) throws IOException {
+            byte[] b = in.bytes;
+            int off = in.start;
+            int len = in.length;
+            boolean whole = in.lineStart && in.eol;
+            if (partHeaders != null) {
+                if (whole && len == 0) {
+                    partHeaders.finish();
+                    if (headers == null) {
+                        headers = partHeaders;
+                    }
+                    startPart(partHeaders);
+                    partHeaders = null;
+                } else if (in.lineStart) {
+                    partHeaders.add(b, off, len);
+                }
+                return;
+            }
+            if (whole && len >= 2 && b[off] == '-' && b[off + 1] == '-' && boundary(b, off, len)) {
+                return;
+            }
+            // A blank line is held back, the last one belongs to the mbox
+            if (whole && len == 0) {
+                if (pendingBlank && content != null) {
+                    content.line(b, off, 0, true);
+                }
+                pendingBlank = true;
+                return;
+            }
+            if (content == null) {
+                pendingBlank = false;
+                return;
+            }
+            if (pendingBlank) {
+                content.line(b, off, 0, true);
+                pendingBlank = false;
+            }
+            if (in.lineStart && isQuotedFrom(b, off, len)) {
+                off++;
+                len--;
+            }
+            content.line(b, off, len, in.eol);
+        }
+
+        // Starts the next part or ends a multipart if the line is one of its boundaries
+        private boolean boundary(byte[] b, int off, int len) throws IOException {
+            int depth = 0;
+            for (byte[] boundary : boundaries) {
+                boolean next = isBoundary(b, off, len, boundary, false);
+                if (next || isBoundary(b, off, len, boundary, true)) {
+                    endPart();
+                    for (int i = 0; i < depth; i++) {
+                        boundaries.pop();
+                    }
+                    if (next) {
+                        partHeaders = new MimeHeaders();
+                    } else {
+                        boundaries.pop();
+                    }
+                    return true;
+                }
+                depth++;
+            }
+            return false;
+        }
+
+        private void startPart(MimeHeaders h) throws IOException {
+            String mediaType = h.mediaType();
+            if (mediaType.startsWith("multipart/")) {
+                String boundary = h.contentParam("boundary");
+                if (boundary != null) {
+                    boundaries.push(("--" + boundary).getBytes(StandardCharsets.ISO_8859_1));
+                }
+                return;
+            }
+            if (mediaType.equals("message/external-body")) {
+                String url = h.contentParam("url");
+                if (url != null) {
+                    attachments.add(new String[] { attachmentType(h, "text/html"), url.replaceAll("\\s", "") });
+                }
+                return;
+            }
+            boolean html = mediaType.equals("text/html");
+            if ((html || mediaType.equals("text/plain")) && !h.isAttachment() &&
+                    (bodyFile == null || html && !htmlBody)) {
+                // The first text part, or the HTML alternative of a plain one
+                bodyFile = bodyFileName();
+                htmlBody = html;
+                ByteSink sink = ByteSink.toFile(folder.resolve(bodyFile), fileBuffer);
+                if (!html) {
+                    sink = ByteSink.textAsHtml(sink);
+                }
+                content = PartDecoder.of(h.transferEncoding(), ByteSink.toUtf8(h.charset(), sink));
+                return;
+            }
+            String name = fileName(h, mediaType);
+            attachments.add(new String[] { attachmentType(h, mediaType), name });
+            content = PartDecoder.of(h.transferEncoding(), ByteSink.toFile(folder.resolve(name), fileBuffer));
+        }
+
+        // msgN-name, keeping only characters that are safe in any file system
+        private String fileName(MimeHeaders h, String mediaType) {
+            String name = h.fileName();
+            if (name != null) {
+                name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1)
+                           .replaceAll("[^A-Za-z0-9._-]", "_");
+                if (name.startsWith(".")) {
+                    name = "_" + name;
+                }
+            }
+            if (name == null || name.isEmpty()) {
+                String subtype = mediaType.substring(mediaType.indexOf('/') + 1);
+                name = "part" + (attachments.size() + 1) +
+                       (subtype.matches("[a-z0-9]{1,8}") ? "." + subtype : "");
+            }
+            String file = "msg" + number + "-" + name;
+            for (int n = 2; !names.add(file); n++) {
+                file = "msg" + number + "-" + n + "-" + name;
+            }
+            return file;
+        }
+
+        private void endPart() throws IOException {
+            if (content != null) {
+                content.close();
+                content = null;
+            }
+            pendingBlank = false;
+        }
+
+        // Closes the last part, writes msgN.txt and returns its name
+        String finish() throws IOException {
+            endPart();
+            if (headers == null) {
+                partHeaders.finish();
+                headers = partHeaders;
+            }
+            StringBuilder sb = new StringBuilder(256);
+            String from = headers.text("from", null);
+            if (from == null) {
+                String[] words = fromLine.split("\\s+");
+                from = words.length > 1 ? words[1] : "";
+            }
+            property(sb, "from", from);
+            String to = headers.text("to", null);
+            if (to != null) {
+                property(sb, "to", to);
+            }
+            String cc = headers.text("cc", null);
+            if (cc != null) {
+                property(sb, "cc", cc);
+            }
+            property(sb, "subject", headers.text("subject", ""));
+            if (bodyFile != null) {
+                property(sb, "body", bodyFile);
+            }
+            long date = headers.date();
+            String dateHeader = headers.get("date");
+            if (date == 0 && dateHeader == null) {
+                date = MimeHeaders.fromLineDate(fromLine);
+            }
+            property(sb, "datetime", date != 0 ? MailStore.formatDate(date) :
+                                     dateHeader != null ? dateHeader : "");
+            for (int i = 0; i < attachments.size(); i++) {
+                property(sb, "type-attachment" + (i + 1), attachments.get(i)[0]);
+                property(sb, "attachment" + (i + 1), attachments.get(i)[1]);
+            }
+            String name = "msg" + number + ".txt";
+            Files.writeString(folder.resolve(name), sb);
+            return name;
+        }
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.mbox;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The header block of a message or of a MIME part, and the bits of RFC
+ * 2045, 2047, 2231 and 5322 needed to read and write them.
+ * <p>
+ * Only the first occurrence of a header is kept, folded lines are joined
+ * and the block is capped at {@link #MAX_SIZE} characters so a broken
+ * message cannot take all memory.
+ */
+final class MimeHeaders {
+
+    static final int MAX_SIZE = 256 * 1024;
+
+    private static final Pattern ENCODED_WORD =
+            Pattern.compile("=\\?([^?\\s]+)\\?([BbQq])\\?([^?\\s]*)\\?=");
+    private static final Pattern BETWEEN_WORDS = Pattern.compile("(\\?=)\\s+(=\\?)");
+    private static final Pattern COMMENT = Pattern.compile("\\s*\\([^)]*\\)\\s*$");
+
+    // "Mon, 3 Oct 2022 10:01:00 +0200", the day of week is optional
+    private static final DateTimeFormatter RFC_5322 = DateTimeFormatter.RFC_1123_DATE_TIME;
+    // "Mon Oct  3 10:01:00 2022" at the end of a From_ line
+    private static final DateTimeFormatter ASCTIME = new DateTimeFormatterBuilder()
+            .parseCaseInsensitive()
+            .appendPattern("EEE MMM")
+            .appendLiteral(' ')
+            .optionalStart().appendLiteral(' ').optionalEnd()
+            .appendPattern("d HH:mm:ss yyyy")
+            .toFormatter(Locale.US);
+    private static final DateTimeFormatter ASCTIME_OUT =
+            DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US);
+
+    private final Map<String, String> values = new HashMap<>();
+    private final StringBuilder current = new StringBuilder();
+    private String currentName;
+    private int size;
+
+    // Adds a header line, joining it to the previous one if it is folded
+    void add(byte[] b, int off, int len) {
+        if (size > MAX_SIZE || len == 0) {
+            return;
+        }
+        size += len;
+        String line = new String(b, off, len, StandardCharsets.UTF_8);
+        if (line.charAt(0) == ' ' || line.charAt(0) == '\t') {
+            if (currentName != null) {
+                current.append(' ').append(line.strip());
+            }
+            return;
+        }
+        finish();
+        int colon = line.indexOf(':');
+        if (colon > 0) {
+            currentName = line.substring(0, colon).strip().toLowerCase(Locale.ROOT);
+            current.append(line.substring(colon + 1).strip());
+        }
+    }
+
+    // Completes the last header, called at the blank line ending the block
+    void finish() {
+        if (currentName != null) {
+            values.putIfAbsent(currentName, current.toString());
+        }
+        currentName = null;
+        current.setLength(0);
+    }
+
+    // Returns the raw value of a header, name in lower case, or null
+    String get(String name) {
+        return values.get(name);
+    }
+
+    // Returns the value with encoded words decoded, or def if missing
+    String text(String name, String def) {
+        String value = values.get(name);
+        return value == null ? def : decodeWords(value);
+    }
+
+    // The type/subtype of Content-Type in lower case, text/plain by default
+    String mediaType() {
+        String value = values.get("content-type");
+        if (value == null) {
+            return "text/plain";
+        }
+        int semi = value.indexOf(';');
+        String type = (semi < 0 ? value : value.substring(0, semi)).strip().toLowerCase(Locale.ROOT);
+        return type.indexOf('/') < 0 ? "text/plain" : type;
+    }
+
+    String contentParam(String name) {
+        return param(values.get("content-type"), name);
+    }
+
+    String transferEncoding() {
+        String value = values.get("content-transfer-encoding");
+        return value == null ? "7bit" : value.strip().toLowerCase(Locale.ROOT);
+    }
+
+    Charset charset() {
+        String name = contentParam("charset");
+        if (name != null) {
+            try {
+                return Charset.forName(name);
+            } catch (IllegalArgumentException e) {
+                // Unknown charset, fall through to the default
+            }
+        }
+        return StandardCharsets.UTF_8;
+    }
+
+    boolean isAttachment() {
+        String disposition = values.get("content-disposition");
+        return disposition != null && disposition.strip().toLowerCase(Locale.ROOT).startsWith("attachment");
+    }
+
+    // The file name of a part, from Content-Disposition or Content-Type
+    String fileName() {
+        String name = param(values.get("content-disposition"), "filename");
+        if (name == null) {
+            name = contentParam("name");
+        }
+        return name == null ? null : decodeWords(name);
+    }
+
+    /**
+     * Returns a parameter of a structured header like
+     * {@code attachment; filename="a b.png"}, including the RFC 2231
+     * {@code filename*=UTF-8''a%20b.png} form, or null.
+     */
+    static String param(String header, String name) {
+        if (header == null) {
+            return null;
+        }
+        String extended = null;
+        int i = header.indexOf(';');
+        while (i >= 0 && i < header.length()) {
+            int eq = header.indexOf('=', i);
+            if (eq < 0) {
+                break;
+            }
+            String key = header.substring(i + 1, eq).strip().toLowerCase(Locale.ROOT);
+            int start = eq + 1;
+            while (start < header.length() && header.charAt(start) == ' ') {
+                start++;
+            }
+            String value;
+            if (start < header.length() && header.charAt(start) == '"') {
+                StringBuilder sb = new StringBuilder();
+                int j = start + 1;
+                for (; j < header.length() && header.charAt(j) != '"'; j++) {
+                    char c = header.charAt(j);
+                    if (c == '\\' && j + 1 < header.length()) {
+                        c = header.charAt(++j);
+                    }
+                    sb.append(c);
+                }
+                value = sb.toString();
+                i = header.indexOf(';', j);
+            } else {
+                int semi = header.indexOf(';', start);
+                value = (semi < 0 ? header.substring(start) : header.substring(start, semi)).strip();
+                i = semi;
+            }
+            if (key.equals(name)) {
+                return value;
+            }
+            if (key.equals(name + "*")) {
+                extended = value;
+            }
+        }
+        return extended == null ? null : decodeExtended(extended);
+    }
+
+    // charset'language'percent-encoded-value
+    private static String decodeExtended(String value) {
+        int q1 = value.indexOf('\'');
+        int q2 = q1 < 0 ? -1 : value.indexOf('\'', q1 + 1);
+        if (q2 < 0) {
+            return value;
+        }
+        Charset cs;
+        try {
+            cs = Charset.forName(value.substring(0, q1));
+        } catch (IllegalArgumentException e) {
+            cs = StandardCharsets.UTF_8;
+        }
+        byte[] out = new byte[value.length()];
+        int n = 0;
+        for (int i = q2 + 1; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()) {
+                out[n++] = (byte) Integer.parseInt(value, i + 1, i + 3, 16);
+                i += 2;
+            } else {
+                out[n++] = (byte) c;
+            }
+        }
+        return new String(out, 0, n, cs);
+    }
+
+    /**
+     * Decodes RFC 2047 encoded words such as {@code =?UTF-8?Q?caf=C3=A9?=},
+     * dropping the white space between adjacent ones.
+     */
+    static String decodeWords(String value) {
+        if (value.indexOf("=?") < 0) {
+            return value;
+        }
+        Matcher m = ENCODED_WORD.matcher(BETWEEN_WORDS.matcher(value).replaceAll("$1$2"));
+        StringBuilder sb = new StringBuilder();
+        while (m.find()) {
+            String decoded;
+            try {
+                Charset cs = Charset.forName(m.group(1));
+                byte[] bytes = Character.toUpperCase(m.group(2).charAt(0)) == 'B'
+                        ? Base64.getMimeDecoder().decode(m.group(3))
+                        : decodeQ(m.group(3));
+                decoded = new String(bytes, cs);
+            } catch (IllegalArgumentException e) {
+                decoded = m.group();
+            }
+            m.appendReplacement(sb, Matcher.quoteReplacement(decoded));
+        }
+        m.appendTail(sb);
+        return sb.toString();
+    }
+
+    private static byte[] decodeQ(String s) {
+        byte[] out = new byte[s.length()];
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '_') {
+                out[n++] = ' ';
+            } else if (c == '=' && i + 2 < s.length()) {
+                out[n++] = (byte) Integer.parseInt(s, i + 1, i + 3, 16);
+                i += 2;
+            } else {
+                out[n++] = (byte) c;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    // Encodes a header value as one RFC 2047 word if it is not plain ASCII
+    static String encodeWords(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x7F || c < 0x20) {
+                return "=?UTF-8?B?" + Base64.getEncoder().encodeToString(
+                        value.getBytes(StandardCharsets.UTF_8)) + "?=";
+            }
+        }
+        return value;
+    }
+
+    // Returns the Date header in epoch milliseconds, or 0
+    long date() {
+        String value = values.get("date");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return ZonedDateTime.parse(COMMENT.matcher(value.strip()).replaceFirst(""), RFC_5322)
+                    .toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    // Returns the date at the end of a From_ line in epoch milliseconds, or 0
+    static long fromLineDate(String fromLine) {
+        String[] words = fromLine.strip().split("\\s+");
+        if (words.length < 7) {
+            return 0;
+        }
+        int n = words.length;
+        String date = words[n - 5] + " " + words[n - 4] + " " + words[n - 3] + " " +
+                      words[n - 2] + " " + words[n - 1];
+        try {
+            return LocalDateTime.parse(date, ASCTIME)
+                    .atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    static String formatDate(long date) {
+        return RFC_5322.format(Instant.ofEpochMilli(date).atZone(ZoneId.systemDefault()));
+    }
+
+    static String formatFromLineDate(long date) {
+        return ASCTIME_OUT.format(Instant.ofEpochMilli(date).atZone(ZoneId.systemDefault()));
+    }
+
+    // The addr-spec of an address header, "a@b.org" of "A <a@b.org>"
+    static String address(String value) {
+        if (value == null || value.isBlank()) {
+            return null;
+        }
+        int lt = value.indexOf('<');
+        int gt = value.indexOf('>', lt + 1);
+        String addr = lt >= 0 && gt > lt ? value.substring(lt + 1, gt) : value.split("[,\\s]+")[0];
+        return addr.isBlank() || addr.indexOf(' ') >= 0 ? null : addr.strip();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.mbox;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Undoes the Content-Transfer-Encoding of a MIME part line by line and
+ * passes the bytes on to a {@link ByteSink}. Lines come without their
+ * terminator; eol is false when a long line is handed over in pieces.
+ */
+abstract class PartDecoder {
+
+    private static final byte[] NEWLINE = { '\n' };
+
+    final ByteSink sink;
+
+    PartDecoder(ByteSink sink) {
+        this.sink = sink;
+    }
+
+    abstract void line(byte[] b, int off, int len, boolean eol) throws IOException;
+
+    void close() throws IOException {
+        sink.close();
+    }
+
+    static PartDecoder of(String transferEncoding, ByteSink sink) {
+        return switch (transferEncoding) {
+            case "base64" -> new Base64Decoder(sink);
+            case "quoted-printable" -> new QuotedPrintableDecoder(sink);
+            default -> new Identity(sink);
+        };
+    }
+
+    // 7bit, 8bit and binary, lines end with "\n"
+    private static final class Identity extends PartDecoder {
+        Identity(ByteSink sink) {
+            super(sink);
+        }
+
+        @Override
+        void line(byte[] b, int off, int len, boolean eol) throws IOException {
+            sink.write(b, off, len);
+            if (eol) {
+                sink.write(NEWLINE);
+            }
+        }
+    }
+
+    private static final class QuotedPrintableDecoder extends PartDecoder {
+        private byte[] out = new byte[256];
+
+        QuotedPrintableDecoder(ByteSink sink) {
+            super(sink);
+        }
+
+        @Override
+        void line(byte[] b, int off, int len, boolean eol) throws IOException {
+            int end = off + len;
+            if (eol) {
+                // Trailing white space was added in transport
+                while (end > off && (b[end - 1] == ' ' || b[end - 1] == '\t')) {
+                    end--;
+                }
+            }
+            if (out.length < len + 1) {
+                out = new byte[len + 1];
+            }
+            int n = 0;
+            boolean softBreak = false;
+            for (int i = off; i < end; i++) {
+                byte c = b[i];
+                if (c == '=') {
+                    if (i + 1 == end) {
+                        softBreak = true;
+                        break;
+                    }
+                    int hi = i + 2 < end ? Character.digit(b[i + 1], 16) : -1;
+                    int lo = hi < 0 ? -1 : Character.digit(b[i + 2], 16);
+                    if (lo >= 0) {
+                        out[n++] = (byte) (hi << 4 | lo);
+                        i += 2;
+                        continue;
+                    }
+                }
+                out[n++] = c;
+            }
+            if (eol && !softBreak) {
+                out[n++] = '\n';
+            }
+            sink.write(out, 0, n);
+        }
+    }
+
+    private static final class Base64Decoder extends PartDecoder {
+        private static final byte[] VALUES = new byte[256];
+        static {
+            Arrays.fill(VALUES, (byte) -1);
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            for (int i = 0; i < alphabet.length(); i++) {
+                VALUES[alphabet.charAt(i)] = (byte) i;
+            }
+        }
+
+        private byte[] out = new byte[256];
+        private int bits;       // up to three pending sextets
+        private int count;
+
+        Base64Decoder(ByteSink sink) {
+            super(sink);
+        }
+
+        @Override
+        void line(byte[] b, int off, int len, boolean eol) throws IOException {
+            int max = len * 3 / 4 + 3;
+            if (out.length < max) {
+                out = new byte[max];
+            }
+            int n = 0;
+            int end = off + len;
+            for (int i = off; i < end; i++) {
+                if (count == 0 && end - i >= 4) {
+                    // Whole quantum of the alphabet, the usual case
+                    int v = VALUES[b[i] & 0xFF] << 18 | VALUES[b[i + 1] & 0xFF] << 12 |
+                            VALUES[b[i + 2] & 0xFF] << 6 | VALUES[b[i + 3] & 0xFF];
+                    if (v >= 0) {
+                        out[n++] = (byte) (v >> 16);
+                        out[n++] = (byte) (v >> 8);
+                        out[n++] = (byte) v;
+                        i += 3;
+                        continue;
+                    }
+                }
+                byte c = b[i];
+                if (c == '=') {
+                    // Padding, flush what the pending sextets hold
+                    if (count == 2) {
+                        out[n++] = (byte) (bits >> 4);
+                    } else if (count == 3) {
+                        out[n++] = (byte) (bits >> 10);
+                        out[n++] = (byte) (bits >> 2);
+                    }
+                    bits = 0;
+                    count = 0;
+                    continue;
+                }
+                int v = VALUES[c & 0xFF];
+                if (v < 0) {
+                    continue;
+                }
+                bits = bits << 6 | v;
+                if (++count == 4) {
+                    out[n++] = (byte) (bits >> 16);
+                    out[n++] = (byte) (bits >> 8);
+                    out[n++] = (byte) bits;
+                    bits = 0;
+                    count = 0;
+                }
+            }
+            sink.write(out, 0, n);
+        }
+    }
+}
@@ -129,10 +129,10 @@ public class ComposeMessage {
         subject = new TextField();
 
         if (messageInfo != null) {
-            to.setText(messageInfo.toField);
-            cc.setText(messageInfo.ccField);
-            String replySubject = messageInfo.subjectField;
-            if (!messageInfo.subjectField.startsWith("Re:")) {
+            to.setText(messageInfo.getTo());
+            cc.setText(messageInfo.getCc());
+            String replySubject = messageInfo.getSubject();
+            if (!replySubject.startsWith("Re:")) {
                 replySubject = "Re: " + replySubject;
             }
             subject.setText(replySubject);
@@ -161,7 +161,7 @@ public class ComposeMessage {
         editor = new HTMLEditor();
 
         if (messageInfo != null) {
-            String fileName = messageInfo.folderPath + File.separatorChar + messageInfo.bodyFileField;
+            String fileName = messageInfo.getFolderPath() + File.separatorChar + messageInfo.getBodyFile();
             Path filePath = Path.of(fileName);
             String content = "";
             try {
@@ -175,7 +175,7 @@ public class ComposeMessage {
                         .replace("<body>", "")
                         .replace("</html>", "")
                         .replace("</body>", "");
-                content = "<p>On " + messageInfo.dateField + ", " + messageInfo.fromField + " wrote:"
+                content = "<p>On " + messageInfo.getDateText() + ", " + messageInfo.getFrom() + " wrote:"
                         + "<p>----- Included message -----"
                         + "<p>" + content;
                 editor.setHtmlText(content);
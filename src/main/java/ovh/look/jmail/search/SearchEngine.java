@@ -0,0 +1,385 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.search;
+
+import ovh.look.jmail.MailStore;
+import ovh.look.jmail.utils.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Full text search over the mail store.
+ * <p>
+ * Subjects, addresses, message bodies with their HTML tags stripped and
+ * text attachments are indexed. On start the saved index is brought up to
+ * date with folders whose msg-list.txt changed since it was written; after
+ * that it follows the changes the store watcher reports for every folder.
+ * Those are plain file names, so no folder needs to be loaded or modeled:
+ * the headers of new and edited messages are read one message file each,
+ * or paged from the header index when many are new. Indexing runs on a
+ * single background thread, queries on virtual threads.
+ * <p>
+ * Next to the word index, a {@link TrigramIndex} over the header fields
+ * answers substring and fuzzy queries. It is built in memory from the
+ * header indexes by the first such query, a page of headers at a time so
+ * that the folder cache is left alone.
+ */
+public class SearchEngine implements MailStore.FolderListener {
+
+    public interface Results {
+        // Called with each batch of matching messages, in store order
+        void found(List<MailStore.MessageInfo> messages);
+        void done(int count);
+    }
+
+    private static final int RESULT_BATCH_SIZE = 50;
+    private static final long SAVE_DELAY_SECONDS = 5;
+    private static final int HEADER_PAGE_SIZE = 1024;
+    // Loading a folder from its header index costs about a tenth of reading
+    // each message file (10-20 us against 150-350 us per message), so a
+    // folder is loaded when at least a tenth of it are hits
+    private static final int LOAD_FOLDER_RATIO = 10;
+
+    private static SearchEngine searchEngine;
+
+    public static synchronized SearchEngine getSearchEngine() {
+        if (searchEngine == null) {
+            searchEngine = new SearchEngine(MailStore.getMailStore());
+        }
+        return searchEngine;
+    }
+
+    private final MailStore store;
+    private final Path indexFile;
+    private final ExecutorService indexer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "JMail search indexer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ExecutorService searcher = Executors.newVirtualThreadPerTaskExecutor();
+    private final CompletableFuture<Void> ready;
+
+    // Locked while used; replaced only on the indexer thread
+    private volatile SearchIndex index = new SearchIndex();
+    private boolean saveScheduled;
+
+    // Set on the indexer thread once built, which later events then update
+    private volatile TrigramIndex trigrams;
+    private CompletableFuture<TrigramIndex> trigramsBuilt;
+
+    private SearchEngine(MailStore store) {
+        this.store = store;
+        this.indexFile = Path.of(MailStore.getMailStoreDir(), SearchIndex.INDEX_FILE);
+        this.ready = CompletableFuture.runAsync(this::open, indexer);
+    }
+
+    private void open() {
+        index = SearchIndex.read(indexFile);
+        store.addFolderListener(this);
+        for (String folder : store.getMailFolders()) {
+            store.watchFolder(folder);
+            try {
+                reconcile(folder, Set.of());
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+        save();
+    }
+
+    // Brings the index up to date with a folder: messages no longer listed
+    // are deleted, new ones and the edited ones (re)indexed. Nothing is
+    // done if msg-list.txt did not change and nothing was edited.
+    private void reconcile(String folder, Set<String> edited) {
+        var state = folderState(folder);
+        SearchIndex idx = index;
+        Set<String> indexed;
+        synchronized (idx) {
+            if (edited.isEmpty() && state.equals(idx.folderState(folder))) {
+                return;
+            }
+            indexed = new HashSet<>(idx.fileNames(folder));
+        }
+        String[] files;
+        if (listFile(folder).isFile()) {
+            files = store.getMessageFiles(folder);
+        } else if (indexed.isEmpty()) {
+            return;   // Not a mail folder, a parent of one maybe
+        } else {
+            files = new String[0];
+        }
+        Set<String> listed = new HashSet<>(List.of(files));
+        Set<String> wanted = new HashSet<>();
+        for (String file : files) {
+            if (!indexed.contains(file) || edited.contains(file)) {
+                wanted.add(file);
+            }
+        }
+        TrigramIndex t = trigrams;
+        for (String file : indexed) {
+            if (!listed.contains(file)) {
+                synchronized (idx) {
+                    idx.delete(folder, file);
+                }
+                if (t != null) {
+                    t.remove(folder, file);
+                }
+            }
+        }
+
+        if (!wanted.isEmpty() && wanted.size() * LOAD_FOLDER_RATIO >= files.length) {
+            for (int start = 0; start < files.length; start += HEADER_PAGE_SIZE) {
+                for (MailStore.MessageInfo info : store.getMessages(folder, start, HEADER_PAGE_SIZE)) {
+                    if (info != null && wanted.contains(info.getFileName())) {
+                        indexMessage(folder, info);
+                    }
+                }
+            }
+        } else {
+            for (String file : wanted) {
+                MailStore.MessageInfo info = store.getMessage(folder, file);
+                if (info != null) {
+                    indexMessage(folder, info);
+                }
+            }
+        }
+        synchronized (idx) {
+            idx.setFolderState(folder, state);
+        }
+    }
+
+    private static File listFile(String folder) {
+        return new File(MailStore.getMailStoreDir() + File.separatorChar + folder, "msg-list.txt");
+    }
+
+    private SearchIndex.FolderState folderState(String folder) {
+        File list = listFile(folder);
+        return new SearchIndex.FolderState(list.lastModified(), list.length());
+    }
+
+    private void indexMessage(String folder, MailStore.MessageInfo info) {
+        Set<String> terms = new HashSet<>();
+        Tokenizer.tokenize(info.getSubject(), terms::add);
+        Tokenizer.tokenize(info.getFrom(), terms::add);
+        Tokenizer.tokenize(info.getTo(), terms::add);
+        Tokenizer.tokenize(info.getCc(), terms::add);
+        String bodyFile = info.getBodyFile();
+        if (bodyFile != null) {
+            Tokenizer.tokenize(Tokenizer.stripTags(readFile(info.getFolderPath(), bodyFile)), terms::add);
+        }
+        for (MailStore.AttachmentDesc d : info.getAttachments()) {
+            if ("text".equals(d.attachmentType.toLowerCase(Locale.ROOT)) &&
+                    !Utils.isURL(d.attachmentName)) {
+                Tokenizer.tokenize(readFile(info.getFolderPath(), d.attachmentName), terms::add);
+            }
+        }
+        SearchIndex idx = index;
+        synchronized (idx) {
+            idx.add(folder, info.getFileName(), terms);
+        }
+        TrigramIndex t = trigrams;
+        if (t != null) {
+            t.add(folder, info.getFileName(), info);
+        }
+    }
+
+    private static String readFile(String folderPath, String name) {
+        try {
+            return Files.readString(Path.of(folderPath, name));
+        } catch (IOException e) {
+            return "";
+        }
+    }
+
+    // Called by the store watcher. Files that are not listed messages, the
+    // body of a message for one, are left to the next change of msg-list.txt.
+    public void folderChanged(String folder, Set<String> fileNames) {
+        Set<String> edited = new HashSet<>(fileNames);
+        edited.remove("msg-list.txt");
+        indexer.execute(() -> {
+            try {
+                reconcile(folder, edited);
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+            if (!saveScheduled) {
+                saveScheduled = true;
+                CompletableFuture.delayedExecutor(SAVE_DELAY_SECONDS, TimeUnit.SECONDS, indexer)
+                        .execute(this::save);
+            }
+        });
+    }
+
+    private void save() {
+        saveScheduled = false;
+        SearchIndex idx = index;
+        synchronized (idx) {
+            try {
+                idx.save(indexFile);
+            } catch (IOException e) {
+                System.err.println("Unable to write search index: " + e);
+            }
+        }
+    }
+
+    /**
+     * Finds the messages containing all words of the query. Matches are
+     * read and handed to results in batches on a background thread;
+     * cancelling the returned future stops the search.
+     */
+    public Future<?> search(String query, Results results) {
+        return searcher.submit(() -> {
+            ready.join();
+            List<String> terms = new ArrayList<>();
+            Tokenizer.tokenize(query, terms::add);
+            String[] folders;
+            String[] files;
+            SearchIndex idx = index;
+            synchronized (idx) {
+                int[] docs = idx.query(terms);
+                folders = new String[docs.length];
+                files = new String[docs.length];
+                for (int i = 0; i < docs.length; i++) {
+                    folders[i] = idx.folderOf(docs[i]);
+                    files[i] = idx.fileOf(docs[i]);
+                }
+            }
+            MailStore.MessageInfo[] hits = resolve(folders, files);
+            stream(hits.length, i -> hits[i], results);
+        });
+    }
+
+    /**
+     * Finds the messages whose from, to, cc or subject contains text, or
+     * with maxEdits greater than 0, a string within that many edits of it.
+     */
+    public Future<?> searchSubstring(String text, int maxEdits, Results results) {
+        return searcher.submit(() -> {
+            ready.join();
+            List<MailStore.MessageInfo> hits = trigrams().join().fuzzy(text, maxEdits);
+            stream(hits.size(), hits::get, results);
+        });
+    }
+
+    // Looks the hits up in the headers of their folders. A folder that is
+    // not cached is loaded for that only if it has many hits, otherwise its
+    // hits are read one message file each.
+    private MailStore.MessageInfo[] resolve(String[] folders, String[] files) {
+        Map<String, Map<String, Integer>> byFolder = new HashMap<>();
+        for (int i = 0; i < files.length; i++) {
+            byFolder.computeIfAbsent(folders[i], f -> new HashMap<>()).put(files[i], i);
+        }
+        MailStore.MessageInfo[] hits = new MailStore.MessageInfo[files.length];
+        for (var entry : byFolder.entrySet()) {
+            if (Thread.currentThread().isInterrupted()) {
+                break;
+            }
+            String folder = entry.getKey();
+            Map<String, Integer> wanted = entry.getValue();
+            MailStore.MessageInfo[] infos = store.peekMessages(folder);
+            if (infos == null && wanted.size() * LOAD_FOLDER_RATIO >= store.getMessageCount(folder)) {
+                infos = store.getMessages(folder);
+            }
+            if (infos != null) {
+                for (MailStore.MessageInfo info : infos) {
+                    Integer i = info != null ? wanted.get(info.getFileName()) : null;
+                    if (i != null) {
+                        hits[i] = info;
+                    }
+                }
+            } else {
+                wanted.forEach((file, i) -> hits[i] = store.getMessage(folder, file));
+            }
+        }
+        return hits;
+    }
+
+    private synchronized CompletableFuture<TrigramIndex> trigrams() {
+        if (trigramsBuilt == null) {
+            trigramsBuilt = CompletableFuture.supplyAsync(this::buildTrigrams, indexer);
+        }
+        return trigramsBuilt;
+    }
+
+    // Runs on the indexer thread, so no event is missed or applied twice
+    private TrigramIndex buildTrigrams() {
+        TrigramIndex t = new TrigramIndex();
+        for (String folder : store.getMailFolders()) {
+            try {
+                int count = store.getMessageCount(folder);
+                for (int start = 0; start < count; start += HEADER_PAGE_SIZE) {
+                    for (MailStore.MessageInfo info : store.getMessages(folder, start, HEADER_PAGE_SIZE)) {
+                        if (info != null) {
+                            t.add(folder, info.getFileName(), info);
+                        }
+                    }
+                }
+            } catch (Throwable th) {
+                th.printStackTrace();
+            }
+        }
+        trigrams = t;
+        return t;
+    }
+
+    // Hands hit(0) to hit(count - 1) to results in batches, skipping nulls
+    private void stream(int count, IntFunction<MailStore.MessageInfo> hit, Results results) {
+        int found = 0;
+        List<MailStore.MessageInfo> batch = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            MailStore.MessageInfo info = hit.apply(i);
+            if (info != null) {
+                batch.add(info);
+                found++;
+            }
+            if (batch.size() == RESULT_BATCH_SIZE) {
+                results.found(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            results.found(batch);
+        }
+        results.done(found);
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Inverted index from terms to the messages containing them.
+ * <p>
+ * Documents get increasing ids as they are added, so new postings are
+ * always appended to the gap encoded lists. Deleting a message only marks
+ * its id; the ids are reclaimed when more than half of them are deleted.
+ * The whole index is written to one file at the root of the mail store:
+ * <pre>
+ *   int magic, int version, long generation
+ *   int folder count, (UTF folder, long msg-list.txt lastModified, long length)*
+ *   int document count, (int folder number, UTF file name)*, deleted bit set
+ *   int term count, (UTF term, int count, int last id, int length, bytes)*
+ * </pre>
+ * Changes made after that are appended to a journal next to it on each
+ * {@link #save}, so a new message costs a few hundred bytes rather than a
+ * rewrite of the index. The journal starts with the generation of the
+ * index it belongs to and holds add, delete and folder state records,
+ * which {@link #read} replays in order. The index is written whole again,
+ * with a new generation, when it is compacted or the journal grows to
+ * half its size.
+ * <p>
+ * Not thread safe, {@link SearchEngine} serializes access.
+ */
+final class SearchIndex {
+
+    static final String INDEX_FILE = "search-index.bin";
+    static final String JOURNAL_FILE = "search-index.log";
+
+    private static final int MAGIC = 0x4A4D5349; // "JMSI"
+    private static final int JOURNAL_MAGIC = 0x4A4D534A; // "JMSJ"
+    private static final int VERSION = 2;
+    private static final long MIN_JOURNAL_SIZE = 1 << 20;
+    private static final int MAX_CHANGES = 1 << 20;   // Bytes of changes kept between saves
+
+    private static final byte ADD = 'A';
+    private static final byte DELETE = 'D';
+    private static final byte STATE = 'S';
+
+    record FolderState(long listModified, long listLength) {}
+
+    private final ArrayList<String> folders = new ArrayList<>();
+    private final Map<String, Integer> folderNumbers = new HashMap<>();
+    private final Map<String, FolderState> folderStates = new HashMap<>();
+
+    private final ArrayList<Integer> docFolders = new ArrayList<>();
+    private final ArrayList<String> docFiles = new ArrayList<>();
+    private final BitSet deleted = new BitSet();
+    private int deletedCount;
+
+    // folder -> file name -> document id, for deletes and updates
+    private final Map<String, Map<String, Integer>> docIds = new HashMap<>();
+
+    private final HashMap<String, PostingList> postings = new HashMap<>();
+
+    // Generation of the index file, 0 before it was first written, and the
+    // changes made since it or the journal were last written
+    private long generation;
+    private final ByteArrayOutputStream changes = new ByteArrayOutputStream();
+    private final DataOutputStream changesOut = new DataOutputStream(changes);
+    private boolean replaying;
+    private boolean rewrite;   // Too many changes, the next save writes the whole index
+
+    int documentCount() {
+        return docFiles.size() - deletedCount;
+    }
+
+    int termCount() {
+        return postings.size();
+    }
+
+    FolderState folderState(String folder) {
+        return folderStates.get(folder);
+    }
+
+    // Where changes are recorded for the journal, or null if they need not be
+    private DataOutputStream journal() {
+        if (replaying || rewrite || generation == 0) {
+            return null;
+        }
+        if (changes.size() > MAX_CHANGES) {
+            rewrite = true;
+            changes.reset();
+            return null;
+        }
+        return changesOut;
+    }
+
+    void setFolderState(String folder, FolderState state) {
+        DataOutputStream out = journal();
+        if (state.equals(folderStates.put(folder, state)) || out == null) {
+            return;
+        }
+        try {
+            out.writeByte(STATE);
+            out.writeUTF(folder);
+            out.writeLong(state.listModified());
+            out.writeLong(state.listLength());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    int add(String folder, String fileName, Collection<String> terms) {
+        delete(folder, fileName);
+        DataOutputStream out = journal();
+        if (out != null) {
+            try {
+                out.writeByte(ADD);
+                out.writeUTF(folder);
+                out.writeUTF(fileName);
+                out.writeInt(terms.size());
+                for (String term : terms) {
+                    out.writeUTF(term);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        int doc = docFiles.size();
+        int folderNo = folderNumbers.computeIfAbsent(folder, f -> {
+            folders.add(f);
+            return folders.size() - 1;
+        });
+        docFolders.add(folderNo);
+        docFiles.add(fileName);
+        docIds.computeIfAbsent(folder, f -> new HashMap<>()).put(fileName, doc);
+        for (String term : terms) {
+            postings.computeIfAbsent(term, t -> new PostingList()).add(doc);
+        }
+        return doc;
+    }
+
+    void delete(String folder, String fileName) {
+        Map<String, Integer> ids = docIds.get(folder);
+        Integer doc = ids == null ? null : ids.remove(fileName);
+        if (doc != null) {
+            deleted.set(doc);
+            deletedCount++;
+            DataOutputStream out = journal();
+            if (out != null) {
+                try {
+                    out.writeByte(DELETE);
+                    out.writeUTF(folder);
+                    out.writeUTF(fileName);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+
+    // File names of the live documents of a folder
+    Collection<String> fileNames(String folder) {
+        Map<String, Integer> ids = docIds.get(folder);
+        return ids == null ? List.of() : new ArrayList<>(ids.keySet());
+    }
+
+    String folderOf(int doc) {
+        return folders.get(docFolders.get(doc));
+    }
+
+    String fileOf(int doc) {
+        return docFiles.get(doc);
+    }
+
+    // Ids of the live documents that contain all terms, ascending
+    int[] query(List<String> terms) {
+        if (terms.isEmpty()) {
+            return new int[0];
+        }
+        List<PostingList> lists = new ArrayList<>();
+        for (String term : terms) {
+            PostingList pl = postings.get(term);
+            if (pl == null) {
+                return new int[0];
+            }
+            lists.add(pl);
+        }
+        // Start with the rarest term so intermediate results stay small
+        lists.sort((a, b) -> Integer.compare(a.count, b.count));
+        int[] docs = lists.get(0).decode();
+        for (int i = 1; i < lists.size() && docs.length > 0; i++) {
+            docs = PostingList.intersect(docs, lists.get(i).decode());
+        }
+        if (deletedCount == 0) {
+            return docs;
+        }
+        int n = 0;
+        for (int doc : docs) {
+            if (!deleted.get(doc)) {
+                docs[n++] = doc;
+            }
+        }
+        return Arrays.copyOf(docs, n);
+    }
+
+    // Renumbers the documents without the deleted ones, returns true if it did
+    boolean compactIfNeeded() {
+        if (deletedCount * 2 <= docFiles.size()) {
+            return false;
+        }
+        int[] remap = new int[docFiles.size()];
+        ArrayList<Integer> newFolders = new ArrayList<>();
+        ArrayList<String> newFiles = new ArrayList<>();
+        for (int doc = 0; doc < remap.length; doc++) {
+            if (deleted.get(doc)) {
+                remap[doc] = -1;
+            } else {
+                remap[doc] = newFiles.size();
+                newFolders.add(docFolders.get(doc));
+                newFiles.add(docFiles.get(doc));
+            }
+        }
+        var it = postings.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next();
+            PostingList compacted = new PostingList();
+            for (int doc : entry.getValue().decode()) {
+                if (remap[doc] >= 0) {
+                    compacted.add(remap[doc]);
+                }
+            }
+            if (compacted.count == 0) {
+                it.remove();
+            } else {
+                entry.setValue(compacted);
+            }
+        }
+        docFolders.clear();
+        docFolders.addAll(newFolders);
+        docFiles.clear();
+        docFiles.addAll(newFiles);
+        deleted.clear();
+        deletedCount = 0;
+        docIds.values().forEach(ids -> ids.replaceAll((f, doc) -> remap[doc]));
+        return true;
+    }
+
+    static Path journalFile(Path file) {
+        return file.resolveSibling(JOURNAL_FILE);
+    }
+
+    /**
+     * Saves the changes since the last save to the journal of file, or
+     * writes the whole index to file if it is compacted, file is missing or
+     * the journal is large. Does nothing if there were no changes.
+     */
+    void save(Path file) throws IOException {
+        Path journal = journalFile(file);
+        boolean compacted = compactIfNeeded();
+        if (compacted || rewrite || generation == 0 ||
+                !Files.isRegularFile(file) || !Files.isRegularFile(journal) ||
+                Files.size(journal) > Math.max(MIN_JOURNAL_SIZE, Files.size(file) / 2)) {
+            write(file);
+            return;
+        }
+        if (changes.size() == 0) {
+            return;
+        }
+        try (OutputStream out = Files.newOutputStream(journal, StandardOpenOption.APPEND)) {
+            changes.writeTo(out);
+        }
+        changes.reset();
+    }
+
+    // Writes the whole index with a new generation and starts its journal
+    void write(Path file) throws IOException {
+        generation = ThreadLocalRandom.current().nextLong() | 1;
+        Path tmp = Files.createTempFile(file.getParent(), INDEX_FILE, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(generation);
+                out.writeInt(folders.size());
+                for (String folder : folders) {
+                    FolderState state = folderStates.getOrDefault(folder, new FolderState(0, -1));
+                    out.writeUTF(folder);
+                    out.writeLong(state.listModified());
+                    out.writeLong(state.listLength());
+                }
+                out.writeInt(docFiles.size());
+                for (int doc = 0; doc < docFiles.size(); doc++) {
+                    out.writeInt(docFolders.get(doc));
+                    out.writeUTF(docFiles.get(doc));
+                }
+                long[] words = deleted.toLongArray();
+                out.writeInt(words.length);
+                for (long w : words) {
+                    out.writeLong(w);
+                }
+                out.writeInt(postings.size());
+                for (var entry : postings.entrySet()) {
+                    PostingList pl = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(pl.count);
+                    out.writeInt(pl.last);
+                    out.writeInt(pl.length);
+                    out.write(pl.data, 0, pl.length);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        changes.reset();
+        rewrite = false;
+
+        // An old journal left behind by a crash here has the old generation
+        // and is ignored
+        Path journal = journalFile(file);
+        tmp = Files.createTempFile(file.getParent(), JOURNAL_FILE, ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeInt(JOURNAL_MAGIC);
+                out.writeLong(generation);
+            }
+            Files.move(tmp, journal, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // Applies the records of the journal of file if it belongs to this
+    // index. A record cut short by a crash ends the replay. Records appended
+    // after it, or to a journal of another generation, would never be
+    // replayed, so the next save writes the whole index in those cases.
+    private void replay(Path file) {
+        Path journal = journalFile(file);
+        if (!Files.isRegularFile(journal)) {
+            return;
+        }
+        replaying = true;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(journal), 1 << 16))) {
+            if (in.readInt() != JOURNAL_MAGIC || in.readLong() != generation) {
+                rewrite = true;
+                return;
+            }
+            while (true) {
+                int type = in.read();
+                if (type < 0) {
+                    break;
+                }
+                String folder = in.readUTF();
+                switch (type) {
+                    case ADD -> {
+                        String fileName = in.readUTF();
+                        String[] terms = new String[in.readInt()];
+                        for (int i = 0; i < terms.length; i++) {
+                            terms[i] = in.readUTF();
+                        }
+                        add(folder, fileName, Arrays.asList(terms));
+                    }
+                    case DELETE -> delete(folder, in.readUTF());
+                    case STATE -> setFolderState(folder, new FolderState(in.readLong(), in.readLong()));
+                    default -> throw new IOException("Unknown journal record " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // Cut short, what was read so far stands
+            rewrite = true;
+        } catch (IOException e) {
+            System.err.println("Unable to read search index journal: " + e);
+            rewrite = true;
+        } finally {
+            replaying = false;
+        }
+    }
+
+    // Returns an empty index if the file is missing or unreadable
+    static SearchIndex read(Path file) {
+        SearchIndex index = new SearchIndex();
+        File f = file.toFile();
+        if (!f.isFile()) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return new SearchIndex();
+            }
+            index.generation = in.readLong();
+            int folderCount = in.readInt();
+            for (int i = 0; i < folderCount; i++) {
+                String folder = in.readUTF();
+                index.folders.add(folder);
+                index.folderNumbers.put(folder, i);
+                index.folderStates.put(folder, new FolderState(in.readLong(), in.readLong()));
+            }
+            int docCount = in.readInt();
+            for (int doc = 0; doc < docCount; doc++) {
+                index.docFolders.add(in.readInt());
+                index.docFiles.add(in.readUTF());
+            }
+            long[] words = new long[in.readInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = in.readLong();
+            }
+            index.deleted.or(BitSet.valueOf(words));
+            index.deletedCount = index.deleted.cardinality();
+            for (int doc = 0; doc < docCount; doc++) {
+                if (!index.deleted.get(doc)) {
+                    index.docIds.computeIfAbsent(index.folderOf(doc), k -> new HashMap<>())
+                            .put(index.docFiles.get(doc), doc);
+                }
+            }
+            int termCount = in.readInt();
+            for (int i = 0; i < termCount; i++) {
+                String term = in.readUTF();
+                int count = in.readInt();
+                int last = in.readInt();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+                index.postings.put(term, new PostingList(data, count, last));
+            }
+        } catch (IOException e) {
+            System.err.println("Unable to read search index, rebuilding: " + e);
+            return new SearchIndex();
+        }
+        index.replay(file);
+        return index;
+    }
+}
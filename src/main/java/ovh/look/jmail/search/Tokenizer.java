@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.search;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into lower case search terms: runs of letters and digits
+ * between 2 and 64 characters long.
+ */
+public class Tokenizer {
+    // No instance of this class
+    private Tokenizer() {}
+
+    static final int MIN_TERM_LENGTH = 2;
+    static final int MAX_TERM_LENGTH = 64;
+
+    public static void tokenize(String text, Consumer<String> terms) {
+        if (text == null) {
+            return;
+        }
+        int len = text.length();
+        int start = -1;
+        for (int i = 0; i <= len; i++) {
+            boolean wordChar = i < len && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar) {
+                if (start < 0) {
+                    start = i;
+                }
+            } else if (start >= 0) {
+                int n = i - start;
+                if (n >= MIN_TERM_LENGTH && n <= MAX_TERM_LENGTH) {
+                    terms.accept(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+    }
+
+    // Drops HTML tags, comments and the content of script and style
+    // elements, and decodes the common character entities.
+    public static String stripTags(String html) {
+        StringBuilder sb = new StringBuilder(html.length());
+        int len = html.length();
+        int i = 0;
+        while (i < len) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                String skipTo = ">";
+                if (html.startsWith("<!--", i)) {
+                    skipTo = "-->";
+                } else if (html.regionMatches(true, i, "<script", 0, 7)) {
+                    skipTo = "</script>";
+                } else if (html.regionMatches(true, i, "<style", 0, 6)) {
+                    skipTo = "</style>";
+                }
+                int end = indexOfIgnoreCase(html, skipTo, i + 1);
+                i = end < 0 ? len : end + skipTo.length();
+                sb.append(' ');
+            } else if (c == '&') {
+                int semi = html.indexOf(';', i);
+                String entity = semi > i && semi - i < 10 ? html.substring(i + 1, semi) : null;
+                String decoded = entity == null ? null : switch (entity) {
+                    case "amp" -> "&";
+                    case "lt" -> "<";
+                    case "gt" -> ">";
+                    case "quot" -> "\"";
+                    case "apos" -> "'";
+                    case "nbsp" -> " ";
+                    default -> null;
+                };
+                if (decoded != null) {
+                    sb.append(decoded);
+                    i = semi + 1;
+                } else {
+                    sb.append(c);
+                    i++;
+                }
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int indexOfIgnoreCase(String s, String what, int from) {
+        for (int i = from; i + what.length() <= s.length(); i++) {
+            if (s.regionMatches(true, i, what, 0, what.length())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.search;
+
+import ovh.look.jmail.MailStore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * In-memory trigram index over the from, to, cc and subject fields, for
+ * substring queries such as "openjdk.org" that the word index cannot
+ * answer, and for substrings within a few typing errors.
+ * <p>
+ * Each trigram maps to a gap encoded {@link PostingList} of row numbers,
+ * a row per message. A substring query intersects the lists of its
+ * trigrams and checks only the remaining rows. A fuzzy query uses the
+ * q-gram lemma: each edit breaks at most three trigrams, so a match with
+ * k edits still shares all but 3k of the query's distinct trigrams, and
+ * only rows reaching that count are checked with an edit distance
+ * computation. Candidates are checked against the headers of the row's
+ * MessageInfo, no copy of the text is kept.
+ * <p>
+ * Removed rows stay in the posting lists until more than half of the
+ * rows are removed; the rows are then renumbered without them.
+ */
+public class TrigramIndex {
+
+    private final ArrayList<MailStore.MessageInfo> infos = new ArrayList<>();  // null once removed
+    private final Map<String, Map<String, Integer>> rows = new HashMap<>();
+    private final HashMap<Long, PostingList> postings = new HashMap<>();
+    private int removed;
+
+    public TrigramIndex() {
+    }
+
+    // The text matched for a message: its header fields, lower case
+    public static String textOf(MailStore.MessageInfo info) {
+        return (info.getFrom() + '\n' + info.getTo() + '\n' +
+                info.getCc() + '\n' + info.getSubject()).toLowerCase(Locale.ROOT);
+    }
+
+    public synchronized int add(String folder, String fileName, MailStore.MessageInfo info) {
+        remove(folder, fileName);
+        int row = infos.size();
+        infos.add(info);
+        rows.computeIfAbsent(folder, f -> new HashMap<>()).put(fileName, row);
+        for (long t : trigrams(textOf(info))) {
+            postings.computeIfAbsent(t, k -> new PostingList()).add(row);
+        }
+        return row;
+    }
+
+    public synchronized void remove(String folder, String fileName) {
+        Map<String, Integer> folderRows = rows.get(folder);
+        Integer row = folderRows == null ? null : folderRows.remove(fileName);
+        if (row != null) {
+            // The row stays in the postings but is never reported again
+            infos.set(row, null);
+            removed++;
+            compactIfNeeded();
+        }
+    }
+
+    public synchronized int size() {
+        return infos.size() - removed;
+    }
+
+    // Rows ever added and not compacted away yet, removed ones included
+    synchronized int rowCount() {
+        return infos.size();
+    }
+
+    // Messages containing query, ignoring case, in the order they were added
+    public synchronized List<MailStore.MessageInfo> substring(String query) {
+        String q = query.toLowerCase(Locale.ROOT);
+        long[] grams = trigrams(q);
+        List<MailStore.MessageInfo> result = new ArrayList<>();
+        if (grams.length == 0) {
+            // Too short to filter on, check every row
+            for (MailStore.MessageInfo info : infos) {
+                if (info != null && contains(info, q)) {
+                    result.add(info);
+                }
+            }
+            return result;
+        }
+        List<PostingList> lists = new ArrayList<>();
+        for (long t : grams) {
+            PostingList pl = postings.get(t);
+            if (pl == null) {
+                return result;
+            }
+            lists.add(pl);
+        }
+        // Start with the rarest trigram so intermediate results stay small
+        lists.sort((a, b) -> Integer.compare(a.count, b.count));
+        int[] candidates = lists.get(0).decode();
+        for (int i = 1; i < lists.size() && candidates.length > 0; i++) {
+            candidates = PostingList.intersect(candidates, lists.get(i).decode());
+        }
+        // Trigrams only say all pieces occur; check they occur in sequence
+        for (int row : candidates) {
+            MailStore.MessageInfo info = infos.get(row);
+            if (info != null && contains(info, q)) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    // True if a header field of info contains q, which is lower case
+    private static boolean contains(MailStore.MessageInfo info, String q) {
+        return containsIgnoreCase(info.getFrom(), q) || containsIgnoreCase(info.getTo(), q) ||
+               containsIgnoreCase(info.getCc(), q) || containsIgnoreCase(info.getSubject(), q);
+    }
+
+    // toLowerCase only copies fields that have upper case letters
+    private static boolean containsIgnoreCase(String s, String q) {
+        return s != null && s.toLowerCase(Locale.ROOT).contains(q);
+    }
+
+    // Messages containing a substring within maxEdits insertions, deletions
+    // or substitutions of query, ignoring case, in the order they were added
+    public synchronized List<MailStore.MessageInfo> fuzzy(String query, int maxEdits) {
+        if (maxEdits == 0) {
+            return substring(query);
+        }
+        String q = query.toLowerCase(Locale.ROOT);
+        long[] grams = trigrams(q);
+        int threshold = grams.length - 3 * maxEdits;
+        List<MailStore.MessageInfo> result = new ArrayList<>();
+        if (threshold <= 0) {
+            // Too short to filter on, every row is a candidate
+            for (MailStore.MessageInfo info : infos) {
+                if (info != null && matchesWithin(textOf(info), q, maxEdits)) {
+                    result.add(info);
+                }
+            }
+            return result;
+        }
+        int[] counts = new int[infos.size()];
+        int[] candidates = new int[16];
+        int n = 0;
+        for (long t : grams) {
+            PostingList pl = postings.get(t);
+            if (pl == null) {
+                continue;
+            }
+            for (int row : pl.decode()) {
+                if (++counts[row] == threshold) {
+                    if (n == candidates.length) {
+                        candidates = Arrays.copyOf(candidates, n * 2);
+                    }
+                    candidates[n++] = row;
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, n);
+        for (int i = 0; i < n; i++) {
+            MailStore.MessageInfo info = infos.get(candidates[i]);
+            if (info != null && matchesWithin(textOf(info), q, maxEdits)) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    // Renumbers the rows without the removed ones once they are the majority
+    private void compactIfNeeded() {
+        if (removed * 2 <= infos.size()) {
+            return;
+        }
+        int[] remap = new int[infos.size()];
+        ArrayList<MailStore.MessageInfo> live = new ArrayList<>(infos.size() - removed);
+        for (int row = 0; row < remap.length; row++) {
+            MailStore.MessageInfo info = infos.get(row);
+            remap[row] = info == null ? -1 : live.size();
+            if (info != null) {
+                live.add(info);
+            }
+        }
+        var it = postings.entrySet().iterator();
+        while (it.hasNext()) {
+            var entry = it.next();
+            PostingList compacted = new PostingList();
+            for (int row : entry.getValue().decode()) {
+                if (remap[row] >= 0) {
+                    compacted.add(remap[row]);
+                }
+            }
+            if (compacted.count == 0) {
+                it.remove();
+            } else {
+                entry.setValue(compacted);
+            }
+        }
+        infos.clear();
+        infos.addAll(live);
+        infos.trimToSize();
+        removed = 0;
+        rows.values().forEach(folderRows -> folderRows.replaceAll((f, row) -> remap[row]));
+    }
+
+    /**
+     * True if text contains a substring within maxEdits of pattern
+     * (Sellers' dynamic programming, the match may start anywhere).
+     */
+    public static boolean matchesWithin(String text, String pattern, int maxEdits) {
+        int m = pattern.length();
+        if (m <= maxEdits) {
+            return true;
+        }
+        int[] prev = new int[m + 1];
+        int[] cur = new int[m + 1];
+        for (int i = 0; i <= m; i++) {
+            prev[i] = i;
+        }
+        for (int j = 0; j < text.length(); j++) {
+            char c = text.charAt(j);
+            cur[0] = 0;
+            for (int i = 1; i <= m; i++) {
+                int cost = pattern.charAt(i - 1) == c ? 0 : 1;
+                cur[i] = Math.min(Math.min(prev[i] + 1, cur[i - 1] + 1), prev[i - 1] + cost);
+            }
+            if (cur[m] <= maxEdits) {
+                return true;
+            }
+            int[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return false;
+    }
+
+    // Distinct trigrams of s, three chars packed into a long, ascending.
+    // The packed chars are multiplied by an odd constant, which keeps them
+    // distinct but spreads them over the bits Long.hashCode looks at.
+    static long[] trigrams(String s) {
+        if (s.length() < 3) {
+            return new long[0];
+        }
+        long[] grams = new long[s.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = (((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2)) *
+                       0x9E3779B97F4A7C15L;
+        }
+        Arrays.sort(grams);
+        int n = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (n == 0 || grams[i] != grams[n - 1]) {
+                grams[n++] = grams[i];
+            }
+        }
+        return n == grams.length ? grams : Arrays.copyOf(grams, n);
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.utils;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BaseMultiResolutionImage;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Icons made from the image assets, shared by everything that shows them.
+ * <p>
+ * Each asset is decoded once. An icon of a given size is a
+ * MultiResolutionImage with a variant scaled for each scale factor of the
+ * attached screens, so it stays sharp on HiDPI displays, and is built the
+ * first time that size is asked for.
+ */
+public class IconCache {
+    // No instance of this class
+    private IconCache() {}
+
+    private static final Map<String, BufferedImage> sources = new ConcurrentHashMap<>();
+    private static final Map<String, ImageIcon> icons = new ConcurrentHashMap<>();
+    private static final double[] scales = screenScales();
+
+    private static double[] screenScales() {
+        TreeSet<Double> scales = new TreeSet<>();
+        scales.add(1.0);
+        if (!GraphicsEnvironment.isHeadless()) {
+            for (GraphicsDevice gd : GraphicsEnvironment.getLocalGraphicsEnvironment().getScreenDevices()) {
+                scales.add(gd.getDefaultConfiguration().getDefaultTransform().getScaleX());
+            }
+        }
+        return scales.stream().mapToDouble(Double::doubleValue).toArray();
+    }
+
+    /**
+     * Returns the decoded asset, or null if it cannot be read.
+     */
+    public static BufferedImage getImage(String asset) {
+        BufferedImage bi = sources.get(asset);
+        if (bi == null) {
+            try {
+                bi = AssetUtils.getBufferedImage(asset);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return null;
+            }
+            BufferedImage raced = sources.putIfAbsent(asset, bi);
+            if (raced != null) {
+                bi = raced;
+            }
+        }
+        return bi;
+    }
+
+    /**
+     * Returns a square icon of the asset, or null if it cannot be read.
+     */
+    public static ImageIcon getIcon(String asset, int size) {
+        String key = asset + "@" + size;
+        ImageIcon icon = icons.get(key);
+        if (icon == null) {
+            BufferedImage bi = getImage(asset);
+            if (bi == null) {
+                return null;
+            }
+            Image[] variants = new Image[scales.length];
+            for (int i = 0; i < scales.length; i++) {
+                variants[i] = scale(bi, (int) Math.ceil(size * scales[i]));
+            }
+            icon = new ImageIcon(new BaseMultiResolutionImage(variants));
+            ImageIcon raced = icons.putIfAbsent(key, icon);
+            if (raced != null) {
+                icon = raced;
+            }
+        }
+        return icon;
+    }
+
+    private static BufferedImage scale(BufferedImage bi, int size) {
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = img.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2d.drawImage(bi, 0, 0, size, size, null);
+        g2d.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.utils;
+
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongSupplier;
+
+/**
+ * Asynchronous checks that the URL of an attachment can be read.
+ * <p>
+ * http and https URLs are tried with a HEAD request first and with a GET
+ * for the first byte when the server does not allow HEAD; other URLs are
+ * opened and closed again on a thread of the checker. Both are bounded by
+ * the connect and read timeouts. Results are kept for a while, and
+ * concurrent checks of the same URL share one request. Nothing blocks
+ * waiting for a check, code that cannot wait looks at {@link #cached}.
+ */
+public final class UrlChecker {
+
+    private static final UrlChecker DEFAULT = new UrlChecker(
+            Duration.ofMillis(Long.getLong("jmail.url.connectTimeout", 3000)),
+            Duration.ofMillis(Long.getLong("jmail.url.readTimeout", 5000)),
+            Duration.ofSeconds(Long.getLong("jmail.url.ttl", 300)),
+            System::nanoTime);
+
+    private record Result(boolean reachable, long checkedAt) {}
+
+    private final HttpClient client;
+    private final Duration connectTimeout;
+    private final Duration readTimeout;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final Map<String, Result> results = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<Boolean>> inFlight = new ConcurrentHashMap<>();
+
+    // Opens the URLs that are not http, which can block for the timeouts
+    private final ExecutorService opener = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "JMail URL checker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * The clock gives the time in nanoseconds that results expire against,
+     * normally System::nanoTime.
+     */
+    public UrlChecker(Duration connectTimeout, Duration readTimeout, Duration ttl, LongSupplier clock) {
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.ttlNanos = ttl.toNanos();
+        this.clock = clock;
+    }
+
+    public static UrlChecker getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Completes with whether the URL could be read, never exceptionally.
+     */
+    public CompletableFuture<Boolean> check(String url) {
+        Boolean known = cached(url);
+        if (known != null) {
+            return CompletableFuture.completedFuture(known);
+        }
+        CompletableFuture<Boolean> started = new CompletableFuture<>();
+        CompletableFuture<Boolean> running = inFlight.putIfAbsent(url, started);
+        if (running != null) {
+            return running;
+        }
+        CompletableFuture<Boolean> probe;
+        try {
+            probe = probe(url);
+        } catch (RuntimeException e) {
+            // Not even a valid URI
+            probe = CompletableFuture.completedFuture(false);
+        }
+        probe.exceptionally(t -> false).thenAccept(reachable -> {
+            results.put(url, new Result(reachable, clock.getAsLong()));
+            inFlight.remove(url);
+            started.complete(reachable);
+        });
+        return started;
+    }
+
+    /**
+     * Returns whether the URL could be read when it was last checked, or
+     * null if it was not checked or the result expired.
+     */
+    public Boolean cached(String url) {
+        Result r = results.get(url);
+        if (r != null && clock.getAsLong() - r.checkedAt() < ttlNanos) {
+            return r.reachable();
+        }
+        return null;
+    }
+
+    // Forgets cached results, for instance after the network came back
+    public void clear() {
+        results.clear();
+    }
+
+    private CompletableFuture<Boolean> probe(String url) {
+        String lower = url.toLowerCase(Locale.ROOT);
+        if (!lower.startsWith("http:") && !lower.startsWith("https:")) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    URLConnection connection = URI.create(url).toURL().openConnection();
+                    connection.setConnectTimeout((int) connectTimeout.toMillis());
+                    connection.setReadTimeout((int) readTimeout.toMillis());
+                    try (InputStream in = connection.getInputStream()) {
+                        return in != null;
+                    }
+                } catch (Exception e) {
+                    return false;
+                }
+            }, opener);
+        }
+        URI uri = URI.create(url);
+        HttpRequest head = HttpRequest.newBuilder(uri)
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .timeout(readTimeout)
+                .build();
+        return client.sendAsync(head, HttpResponse.BodyHandlers.discarding())
+                .thenCompose(response -> {
+                    int status = response.statusCode();
+                    if (status != 405 && status != 501) {
+                        return CompletableFuture.completedFuture(status < 400);
+                    }
+                    // HEAD not supported, ask for the first byte only
+                    HttpRequest get = HttpRequest.newBuilder(uri)
+                            .header("Range", "bytes=0-0")
+                            .timeout(readTimeout)
+                            .build();
+                    return client.sendAsync(get, HttpResponse.BodyHandlers.discarding())
+                            .thenApply(r -> r.statusCode() < 400);
+                });
+    }
+}
@@ -26,7 +26,6 @@ package ovh.look.jmail.utils;
 import javafx.application.Platform;
 
 import java.io.File;
-import java.net.URL;
 import java.util.Locale;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -46,6 +45,9 @@ public class Utils {
                 fileOrUrl.startsWith("https:");
     }
 
+    // Returns the URL of a file or URL, or null if it cannot be read. Runs on
+    // the FX thread, so a URL is only refused when an earlier check found it
+    // unreachable; an unchecked one is passed on and checked for next time.
     public static String toURLString(String fileOrUrl) {
         try {
             String urlString = fileOrUrl;
@@ -57,13 +59,14 @@ public class Utils {
                 }
                 urlString = file.toURI().toURL().toExternalForm();
             } else {
-                var url = new URL(fileOrUrl);
-                var in = url.openStream();
-                if (in == null) {
-                    System.err.println("Unable to read: " + url);
+                UrlChecker checker = UrlChecker.getDefault();
+                Boolean reachable = checker.cached(fileOrUrl);
+                if (reachable == null) {
+                    checker.check(fileOrUrl);
+                } else if (!reachable) {
+                    System.err.println("Unable to read: " + fileOrUrl);
                     return null;
                 }
-                in.close();
             }
             return urlString;
         } catch (Exception ex) {
@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FolderCacheTest {
+
+    @TempDir
+    Path root;
+
+    private FolderCache cache;
+    private final List<Set<String>> changes = new ArrayList<>();
+    private boolean patch;
+
+    private static final MailStore.MessageInfo[] HEADERS = {
+        TestMessages.message("inbox", "msg1.txt", "prr@openjdk.org", "kcr@openjdk.org", "", "One")
+    };
+
+    @BeforeEach
+    void setUp() throws IOException {
+        Files.createDirectories(root.resolve("inbox").resolve("sub"));
+        cache = new FolderCache(root.toString(), 16, 1000, (folder, names) -> {
+            changes.add(names);
+            return patch;
+        });
+    }
+
+    private record Event(WatchEvent.Kind<Path> kind, Path context) implements WatchEvent<Path> {
+        public int count() {
+            return 1;
+        }
+    }
+
+    private static WatchEvent<?> event(WatchEvent.Kind<Path> kind, String name) {
+        return new Event(kind, Path.of(name));
+    }
+
+    private void load(String folder) {
+        assertSame(HEADERS, cache.get(folder, f -> HEADERS));
+        assertTrue(cache.isCached(folder));
+    }
+
+    @Test
+    void editedMessageDropsTheHeaders() {
+        load("inbox");
+        cache.handleEvents(root.resolve("inbox"),
+                List.of(event(StandardWatchEventKinds.ENTRY_MODIFY, "msg1.txt")));
+        assertEquals(List.of(Set.of("msg1.txt")), changes);
+        assertFalse(cache.isCached("inbox"));
+    }
+
+    @Test
+    void patchedHeadersAreKept() {
+        load("inbox");
+        patch = true;
+        cache.handleEvents(root.resolve("inbox"),
+                List.of(event(StandardWatchEventKinds.ENTRY_MODIFY, "msg1.txt")));
+        assertTrue(cache.isCached("inbox"));
+    }
+
+    @Test
+    void eventsOfOnePollAreHandledTogether() {
+        load("inbox");
+        cache.handleEvents(root.resolve("inbox"), List.of(
+                event(StandardWatchEventKinds.ENTRY_CREATE, "msg2.txt"),
+                event(StandardWatchEventKinds.ENTRY_MODIFY, MailIndex.MSG_LIST_FILE),
+                event(StandardWatchEventKinds.ENTRY_DELETE, "msg1.txt"),
+                event(StandardWatchEventKinds.ENTRY_MODIFY, "msg2.txt")));
+        assertEquals(1, changes.size());
+        assertEquals(List.of("msg2.txt", MailIndex.MSG_LIST_FILE, "msg1.txt"),
+                     List.copyOf(changes.get(0)));
+    }
+
+    @Test
+    void bodyFileEditDropsTheHeaders() {
+        // The size of a message includes its body
+        load("inbox");
+        cache.handleEvents(root.resolve("inbox"),
+                List.of(event(StandardWatchEventKinds.ENTRY_MODIFY, "msg1-body.html")));
+        assertEquals(List.of(Set.of("msg1-body.html")), changes);
+        assertFalse(cache.isCached("inbox"));
+    }
+
+    @Test
+    void headerIndexWritesAreIgnored() {
+        load("inbox");
+        cache.handleEvents(root.resolve("inbox"),
+                List.of(event(StandardWatchEventKinds.ENTRY_MODIFY, MailIndex.INDEX_FILE)));
+        assertTrue(changes.isEmpty());
+        assertTrue(cache.isCached("inbox"));
+    }
+
+    @Test
+    void deletedSubfolderIsDropped() {
+        load("inbox/sub");
+        patch = true;
+        cache.handleEvents(root.resolve("inbox"),
+                List.of(event(StandardWatchEventKinds.ENTRY_DELETE, "sub")));
+        assertFalse(cache.isCached("inbox/sub"));
+    }
+
+    @Test
+    void openIndexIsDroppedWithTheHeaders() throws IOException {
+        Path inbox = root.resolve("inbox");
+        Files.writeString(inbox.resolve("msg1.txt"), "subject=One\n");
+        Files.writeString(inbox.resolve(MailIndex.MSG_LIST_FILE), "msg1.txt\n");
+        MailIndex.write(inbox.toString(), HEADERS);
+
+        MailIndex index = cache.getIndex("inbox", f -> MailIndex.open(inbox.toString()));
+        assertNotNull(index);
+        assertSame(index, cache.getIndex("inbox", f -> fail("opened again")));
+        cache.handleEvents(inbox,
+                List.of(event(StandardWatchEventKinds.ENTRY_MODIFY, "msg1.txt")));
+        assertNotSame(index, cache.getIndex("inbox", f -> MailIndex.open(inbox.toString())));
+    }
+
+    @Test
+    void missingFolderIsNotCached() {
+        assertFalse(cache.watch("nowhere"));
+        assertSame(HEADERS, cache.get("nowhere", f -> HEADERS));
+        assertFalse(cache.isCached("nowhere"));
+    }
+}
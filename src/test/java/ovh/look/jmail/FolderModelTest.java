@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// The store watcher refreshes the models as well. The tests hold the
+// model, whose refresh is synchronized, while they change the files, so the
+// watcher only gets its turn once they are done.
+class FolderModelTest {
+
+    private static int folders;
+
+    private MailStore store;
+    private String folder;
+    private Path dir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = TestStore.store();
+        folder = "model" + folders++;
+        dir = TestStore.root().resolve(folder);
+        Files.createDirectories(dir);
+        for (int i = 1; i <= 3; i++) {
+            writeMessage("msg" + i + ".txt", "Message " + i);
+        }
+        Files.writeString(dir.resolve("msg1-body.html"), "<html>Hello</html>");
+        writeList("msg1.txt", "msg2.txt", "msg3.txt");
+    }
+
+    private void writeMessage(String file, String subject) throws IOException {
+        String body = file.equals("msg1.txt") ? "body=msg1-body.html\n" : "";
+        Files.writeString(dir.resolve(file), "subject=" + subject + "\n" + body);
+    }
+
+    private void writeList(String... files) throws IOException {
+        Files.write(dir.resolve(MailIndex.MSG_LIST_FILE), List.of(files));
+    }
+
+    // Records the events as "kind index file"
+    private static class Recorder implements FolderModel.Listener {
+        final List<String> events = new ArrayList<>();
+
+        public synchronized void messageAdded(FolderModel.FolderEvent e) {
+            events.add("added " + e.index() + " " + e.fileName());
+        }
+
+        public synchronized void messageRemoved(FolderModel.FolderEvent e) {
+            assertNull(e.message());
+            events.add("removed " + e.index() + " " + e.fileName());
+        }
+
+        public synchronized void messageUpdated(FolderModel.FolderEvent e) {
+            events.add("updated " + e.index() + " " + e.fileName());
+        }
+
+        synchronized List<String> events() {
+            return List.copyOf(events);
+        }
+    }
+
+    private static List<String> fileNames(MailStore.MessageInfo[] infos) {
+        return Arrays.stream(infos).map(MailStore.MessageInfo::getFileName).toList();
+    }
+
+    @Test
+    void addedAndRemovedMessages() throws IOException {
+        FolderModel model = store.getFolderModel(folder);
+        Recorder recorder = new Recorder();
+        assertEquals(3, model.addListenerAndGetMessages(recorder).length);
+
+        synchronized (model) {
+            writeMessage("msg4.txt", "Message 4");
+            writeList("msg1.txt", "msg3.txt", "msg4.txt");
+            assertTrue(model.refresh(Set.of(MailIndex.MSG_LIST_FILE, "msg4.txt")));
+            assertEquals(List.of("removed 1 msg2.txt", "added 2 msg4.txt"), recorder.events());
+            assertEquals(3, model.size());
+            assertEquals(List.of("msg1.txt", "msg3.txt", "msg4.txt"),
+                         fileNames(store.peekMessages(folder)));
+            assertEquals("Message 4", store.peekMessages(folder)[2].getSubject());
+        }
+    }
+
+    @Test
+    void reorderedListStartsOver() throws IOException {
+        FolderModel model = store.getFolderModel(folder);
+        Recorder recorder = new Recorder();
+        model.addListenerAndGetMessages(recorder);
+
+        synchronized (model) {
+            writeList("msg3.txt", "msg1.txt", "msg2.txt");
+            assertTrue(model.refresh(Set.of(MailIndex.MSG_LIST_FILE)));
+            assertEquals(List.of("removed 2 msg3.txt", "removed 1 msg2.txt", "removed 0 msg1.txt",
+                                 "added 0 msg3.txt", "added 1 msg1.txt", "added 2 msg2.txt"),
+                         recorder.events());
+            assertEquals(List.of("msg3.txt", "msg1.txt", "msg2.txt"),
+                         fileNames(store.peekMessages(folder)));
+        }
+    }
+
+    @Test
+    void totalSizeFollowsTheChanges() throws IOException {
+        FolderModel model = store.getFolderModel(folder);
+        model.addListenerAndGetMessages(new Recorder());
+        long bodySize = Files.size(dir.resolve("msg1-body.html"));
+        assertEquals(bodySize, model.getTotalSize());
+
+        synchronized (model) {
+            writeList("msg2.txt", "msg3.txt");
+            model.refresh(Set.of(MailIndex.MSG_LIST_FILE));
+            assertEquals(0, model.getTotalSize());
+        }
+    }
+
+    @Test
+    void editedMessageIsPatched() throws IOException {
+        FolderModel model = store.getFolderModel(folder);
+        assertEquals(3, store.getMessages(folder).length);
+
+        synchronized (model) {
+            writeMessage("msg2.txt", "Edited");
+            assertTrue(model.refresh(Set.of("msg2.txt")));
+            MailStore.MessageInfo[] cached = store.peekMessages(folder);
+            assertNotNull(cached);
+            assertEquals("Edited", cached[1].getSubject());
+        }
+    }
+
+    @Test
+    void editedMessageIsUpdated() throws IOException {
+        FolderModel model = store.getFolderModel(folder);
+        Recorder recorder = new Recorder();
+        model.addListenerAndGetMessages(recorder);
+
+        synchronized (model) {
+            writeMessage("msg3.txt", "Edited");
+            model.refresh(Set.of("msg3.txt", "unlisted.txt"));
+            assertEquals(List.of("updated 2 msg3.txt"), recorder.events());
+        }
+    }
+
+    @Test
+    void bodyFileEditIsNotApplied() throws IOException {
+        FolderModel model = store.getFolderModel(folder);
+        store.getMessages(folder);
+
+        synchronized (model) {
+            Files.writeString(dir.resolve("msg1-body.html"), "<html>Hello again</html>");
+            assertFalse(model.refresh(Set.of("msg1-body.html")));
+        }
+    }
+
+    @Test
+    void uncachedFolderIsNotPatched() throws IOException {
+        FolderModel model = store.getFolderModel(folder);
+        synchronized (model) {
+            writeMessage("msg2.txt", "Edited");
+            assertFalse(model.refresh(Set.of("msg2.txt")));
+        }
+    }
+}
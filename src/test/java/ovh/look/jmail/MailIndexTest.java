@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MailIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private static final String[] FILES = { "msg1.txt", "msg2.txt", "msg3.txt" };
+
+    // Writes the message files and msg-list.txt, and the headers as if
+    // they had been read from them, the second message being unreadable
+    private MailStore.MessageInfo[] writeFolder() throws IOException {
+        String folder = dir.toString();
+        for (String file : FILES) {
+            Files.writeString(dir.resolve(file), "subject=" + file + "\n");
+        }
+        Files.write(dir.resolve(MailIndex.MSG_LIST_FILE), List.of(FILES));
+        MailStore.AttachmentDesc[] attachments = {
+            new MailStore.AttachmentDesc("image", "photo.jpg"),
+            new MailStore.AttachmentDesc("web", "https://openjdk.org/")
+        };
+        return new MailStore.MessageInfo[] {
+            MailStore.MessageInfo.create(folder, "msg1.txt", "kcr@openjdk.org", "prr@openjdk.org",
+                    null, "Revue de l’été ✓", "10/3/98 10:01 AM", "msg1-body.html", attachments, 1234),
+            null,
+            MailStore.MessageInfo.create(folder, "msg3.txt", "kcr@openjdk.org", "", "list@openjdk.org",
+                    "", "not a date", null, MailStore.MessageInfo.NO_ATTACHMENTS, 0)
+        };
+    }
+
+    private static void assertSameMessage(MailStore.MessageInfo expected, MailStore.MessageInfo actual) {
+        if (expected == null) {
+            assertNull(actual);
+            return;
+        }
+        assertEquals(expected.getFileName(), actual.getFileName());
+        assertEquals(expected.getSubject(), actual.getSubject());
+        assertEquals(expected.getBodyFile(), actual.getBodyFile());
+        assertEquals(expected.getTo(), actual.getTo());
+        assertEquals(expected.getFrom(), actual.getFrom());
+        assertEquals(expected.getCc(), actual.getCc());
+        assertEquals(expected.getDate(), actual.getDate());
+        assertEquals(expected.getDateText(), actual.getDateText());
+        assertEquals(expected.getSize(), actual.getSize());
+        assertEquals(expected.getAttachments().length, actual.getAttachments().length);
+        for (int a = 0; a < expected.getAttachments().length; a++) {
+            assertEquals(expected.getAttachments()[a].attachmentType, actual.getAttachments()[a].attachmentType);
+            assertEquals(expected.getAttachments()[a].attachmentName, actual.getAttachments()[a].attachmentName);
+        }
+    }
+
+    @Test
+    void roundTrip() throws IOException {
+        MailStore.MessageInfo[] infos = writeFolder();
+        MailIndex.write(dir.toString(), infos);
+
+        MailIndex index = MailIndex.open(dir.toString());
+        assertNotNull(index);
+        assertEquals(FILES.length, index.size());
+        MailStore.MessageInfo[] all = index.getAll();
+        for (int i = 0; i < FILES.length; i++) {
+            assertSameMessage(infos[i], index.get(i));
+            assertSameMessage(infos[i], all[i]);
+        }
+        assertEquals("not a date", all[2].getDateText());
+    }
+
+    @Test
+    void changedListMakesIndexStale() throws IOException {
+        MailIndex.write(dir.toString(), writeFolder());
+        Files.writeString(dir.resolve(MailIndex.MSG_LIST_FILE), "msg1.txt\n");
+        assertNull(MailIndex.open(dir.toString()));
+    }
+
+    @Test
+    void editedMessageIsNotCurrent() throws IOException {
+        MailIndex.write(dir.toString(), writeFolder());
+        MailIndex index = MailIndex.open(dir.toString());
+        assertTrue(index.isCurrent(0));
+        // Written but unreadable entries are always read again
+        assertFalse(index.isCurrent(1));
+
+        // Editing in place does not make the index stale as a whole
+        Files.writeString(dir.resolve("msg1.txt"), "subject=Edited in place\n");
+        MailIndex.markStale(dir.toString(), Set.of("msg1.txt", "msg2.txt", "other.txt"));
+        MailIndex reopened = MailIndex.open(dir.toString());
+        assertNotNull(reopened);
+        assertFalse(reopened.isCurrent(0));
+        assertFalse(reopened.isCurrent(1));
+        assertTrue(reopened.isCurrent(2));
+        // Stale entries still decode, the mapping already open sees the mark
+        assertEquals("msg1.txt", reopened.get(0).getFileName());
+        assertFalse(index.isCurrent(0));
+    }
+
+    @Test
+    void damagedIndexIsIgnored() throws IOException {
+        MailIndex.write(dir.toString(), writeFolder());
+        Path file = dir.resolve(MailIndex.INDEX_FILE);
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[0] ^= 1;
+        Files.write(file, bytes);
+        assertNull(MailIndex.open(dir.toString()));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessageDateTest {
+
+    private static LocalDateTime parsed(String datetime) {
+        long date = MailStore.parseDate(datetime);
+        assertNotEquals(0, date, datetime);
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(date), ZoneId.systemDefault());
+    }
+
+    @Test
+    void twoDigitYears() {
+        assertEquals(LocalDateTime.of(1998, 10, 3, 10, 1), parsed("10/3/98 10:01 AM"));
+        assertEquals(LocalDateTime.of(2010, 1, 2, 21, 5), parsed("1/2/10 9:05 pm"));
+
+        // The window ends 20 years from now
+        int year = LocalDate.now().getYear();
+        int soon = year + 19;
+        int past = year + 21 - 100;
+        assertEquals(soon, parsed("6/1/" + String.format("%02d", soon % 100) + " 12:00 PM").getYear());
+        assertEquals(past, parsed("6/1/" + String.format("%02d", past % 100) + " 12:00 PM").getYear());
+    }
+
+    @Test
+    void formattedDatesParseBack() {
+        long date = MailStore.parseDate("10/3/98 10:01 AM");
+        assertEquals("10/3/98 10:01 AM", MailStore.formatDate(date));
+        assertEquals(date, MailStore.parseDate(MailStore.formatDate(date)));
+    }
+
+    @Test
+    void unparsableDatesKeepTheirText() {
+        assertEquals(0, MailStore.parseDate("not a date"));
+        assertEquals(0, MailStore.parseDate("10/3/1998 10:01 AM"));
+        assertEquals(0, MailStore.parseDate(""));
+        assertEquals(0, MailStore.parseDate(null));
+
+        MailStore.MessageInfo info = MailStore.MessageInfo.create("folder", "msg1.txt", "kcr@openjdk.org",
+                "prr@openjdk.org", null, "Subject", "not a date", null, MailStore.MessageInfo.NO_ATTACHMENTS, 0);
+        assertEquals(0, info.getDate());
+        assertEquals("not a date", info.getDateText());
+
+        MailStore.MessageInfo dated = MailStore.MessageInfo.create("folder", "msg2.txt", "kcr@openjdk.org",
+                "prr@openjdk.org", null, "Subject", "10/3/98 10:01 AM", null, MailStore.MessageInfo.NO_ATTACHMENTS, 0);
+        assertEquals(MailStore.parseDate("10/3/98 10:01 AM"), dated.getDate());
+        assertEquals("10/3/98 10:01 AM", dated.getDateText());
+    }
+}
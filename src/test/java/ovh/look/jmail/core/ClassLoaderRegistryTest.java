@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClassLoaderRegistryTest {
+
+    // Main class of the test jars, found through the parent loader
+    public static class Attachment {
+        public Object createContent() {
+            return "content";
+        }
+    }
+
+    @TempDir
+    Path dir;
+
+    private Path jar(String name) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, Attachment.class.getName());
+        Path jar = dir.resolve(name);
+        // Only the manifest
+        new JarOutputStream(Files.newOutputStream(jar), manifest).close();
+        return jar;
+    }
+
+    private static final int MAX = Integer.getInteger("jmail.classloaders.max", 8);
+
+    // Fills the registry with loaders whose contents were released
+    private void fill(String prefix) throws Exception {
+        for (int i = 0; i < MAX; i++) {
+            ClassLoaderRegistry.createContent(jar(prefix + i + ".jar").toString()).release();
+        }
+    }
+
+    @Test
+    void evictedLoaderIsClosedOnRelease() throws Exception {
+        fill("before");
+        ClassLoaderRegistry.Content shown = ClassLoaderRegistry.createContent(jar("shown.jar").toString());
+        assertEquals("content", shown.ui());
+        int closed = ClassLoaderRegistry.getStats().closed();
+
+        // Push the loader of shown.jar out of the registry after the others
+        fill("after");
+        assertEquals(closed + MAX - 1, ClassLoaderRegistry.getStats().closed(), "closed while in use");
+
+        shown.release();
+        assertEquals(closed + MAX, ClassLoaderRegistry.getStats().closed());
+        shown.release();
+        assertEquals(closed + MAX, ClassLoaderRegistry.getStats().closed());
+    }
+
+    @Test
+    void releasedLoadersAreClosedOnEviction() throws Exception {
+        fill("before");
+        int closed = ClassLoaderRegistry.getStats().closed();
+        fill("after");
+        assertEquals(closed + MAX, ClassLoaderRegistry.getStats().closed());
+    }
+}
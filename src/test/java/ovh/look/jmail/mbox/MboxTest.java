@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.mbox;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ovh.look.jmail.MailStore;
+import ovh.look.jmail.TestStore;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MboxTest {
+
+    private static final String MBOX = """
+            From alice@example.com Sat Oct  3 10:01:00 1998
+            From: Alice <alice@example.com>
+            To: bob@example.com
+            Subject: =?UTF-8?Q?Caf=C3=A9?= plans
+            Date: Sat, 3 Oct 1998 10:01:00 +0000
+
+            Hello Bob,
+            >From the start, this was a plan.
+
+            From bob@example.com Sun Oct  4 11:00:00 2020
+            From: bob@example.com
+            To: alice@example.com
+            Cc: carol@example.com
+            Subject: Report
+            Date: Sun, 4 Oct 2020 11:00:00 +0000
+            MIME-Version: 1.0
+            Content-Type: multipart/mixed; boundary="XYZ"
+
+            --XYZ
+            Content-Type: text/html; name="body.html"
+            Content-Disposition: attachment; filename="body.html"
+            Content-Transfer-Encoding: base64
+
+            PGgxPkF0dGFjaGVkPC9oMT4K
+            --XYZ
+            Content-Type: text/html; charset=UTF-8
+
+            <p>See attached</p>
+            --XYZ
+            Content-Type: message/external-body; access-type=URL; URL="https://openjdk.org/"
+
+            Content-Type: text/html
+
+            --XYZ--
+
+            """;
+
+    private static Properties properties(Path file) throws IOException {
+        Properties p = new Properties();
+        try (Reader in = Files.newBufferedReader(file)) {
+            p.load(in);
+        }
+        return p;
+    }
+
+    private static Path importMbox(Path folder) throws IOException {
+        Path mbox = Files.createTempFile("jmail-test", ".mbox");
+        Files.writeString(mbox, MBOX);
+        Files.createDirectories(folder);
+        assertEquals(2, new MboxImporter(folder).importFrom(mbox));
+        Files.delete(mbox);
+        return folder;
+    }
+
+    @Test
+    void importsMessagesAndParts(@TempDir Path dir) throws IOException {
+        Path folder = importMbox(dir.resolve("inbox"));
+        assertEquals(List.of("msg1.txt", "msg2.txt"), Files.readAllLines(folder.resolve("msg-list.txt")));
+
+        Properties first = properties(folder.resolve("msg1.txt"));
+        assertEquals("Alice <alice@example.com>", first.getProperty("from"));
+        assertEquals("Café plans", first.getProperty("subject"));
+        assertEquals(Instant.parse("1998-10-03T10:01:00Z").toEpochMilli(),
+                     MailStore.parseDate(first.getProperty("datetime")));
+        String body = Files.readString(folder.resolve(first.getProperty("body")));
+        assertTrue(body.contains("From the start, this was a plan."), body);
+        assertFalse(body.contains(">From"), body);
+
+        Properties second = properties(folder.resolve("msg2.txt"));
+        assertEquals("carol@example.com", second.getProperty("cc"));
+        assertEquals("<p>See attached</p>\n", Files.readString(folder.resolve(second.getProperty("body"))));
+        // An attachment named like the body file does not replace it
+        String attachment = second.getProperty("attachment1");
+        assertNotEquals(second.getProperty("body"), attachment);
+        assertEquals("<h1>Attached</h1>\n", Files.readString(folder.resolve(attachment)));
+        assertEquals("web", second.getProperty("type-attachment1"));
+        assertEquals("https://openjdk.org/", second.getProperty("attachment2"));
+    }
+
+    @Test
+    void exportsWhatItImports() throws IOException {
+        Path root = TestStore.root();
+        MailStore store = TestStore.store();
+        importMbox(root.resolve("mbox-original"));
+
+        Path mbox = Files.createTempFile("jmail-test", ".mbox");
+        assertEquals(2, new MboxExporter(store).export("mbox-original", mbox));
+        Files.createDirectories(root.resolve("mbox-copy"));
+        assertEquals(2, new MboxImporter(root.resolve("mbox-copy")).importFrom(mbox));
+        Files.delete(mbox);
+
+        MailStore.MessageInfo[] original = store.getMessages("mbox-original");
+        MailStore.MessageInfo[] copy = store.getMessages("mbox-copy");
+        assertEquals(original.length, copy.length);
+        for (int i = 0; i < original.length; i++) {
+            MailStore.MessageInfo a = original[i];
+            MailStore.MessageInfo b = copy[i];
+            assertEquals(a.getFrom(), b.getFrom());
+            assertEquals(a.getTo(), b.getTo());
+            assertEquals(a.getCc(), b.getCc());
+            assertEquals(a.getSubject(), b.getSubject());
+            assertEquals(a.getDate(), b.getDate());
+            assertEquals(Files.readString(Path.of(a.getFolderPath(), a.getBodyFile())),
+                         Files.readString(Path.of(b.getFolderPath(), b.getBodyFile())));
+            assertEquals(a.getAttachments().length, b.getAttachments().length);
+            for (int j = 0; j < a.getAttachments().length; j++) {
+                MailStore.AttachmentDesc da = a.getAttachments()[j];
+                MailStore.AttachmentDesc db = b.getAttachments()[j];
+                assertEquals(da.attachmentType, db.attachmentType);
+                if (da.attachmentName.startsWith("https:")) {
+                    assertEquals(da.attachmentName, db.attachmentName);
+                } else {
+                    assertArrayEquals(Files.readAllBytes(Path.of(a.getFolderPath(), da.attachmentName)),
+                                      Files.readAllBytes(Path.of(b.getFolderPath(), db.attachmentName)));
+                }
+            }
+        }
+    }
+}
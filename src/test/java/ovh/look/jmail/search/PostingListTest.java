@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PostingListTest {
+
+    @Test
+    void decodesWhatWasAdded() {
+        // Gaps of one to four varint bytes
+        int[] docs = { 0, 1, 127, 128, 16_383, 16_384, 2_097_152, Integer.MAX_VALUE - 1 };
+        PostingList pl = new PostingList();
+        for (int doc : docs) {
+            pl.add(doc);
+        }
+        assertEquals(docs.length, pl.count);
+        assertArrayEquals(docs, pl.decode());
+    }
+
+    @Test
+    void continuesFromSavedBytes() {
+        Random r = new Random(1);
+        int[] docs = new int[10_000];
+        PostingList pl = new PostingList();
+        for (int i = 0, doc = -1; i < docs.length; i++) {
+            doc += 1 + r.nextInt(1000);
+            docs[i] = doc;
+            if (i < docs.length / 2) {
+                pl.add(doc);
+            }
+        }
+        // As SearchIndex writes and reads it
+        PostingList read = new PostingList(pl.bytes(), pl.count, pl.last);
+        for (int i = docs.length / 2; i < docs.length; i++) {
+            read.add(docs[i]);
+        }
+        assertArrayEquals(docs, read.decode());
+    }
+
+    @Test
+    void intersect() {
+        assertArrayEquals(new int[] { 3, 9 },
+                PostingList.intersect(new int[] { 1, 3, 5, 9 }, new int[] { 2, 3, 4, 9, 12 }));
+        assertArrayEquals(new int[0], PostingList.intersect(new int[] { 1 }, new int[0]));
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.search;
+
+import org.junit.jupiter.api.Test;
+import ovh.look.jmail.MailStore;
+import ovh.look.jmail.TestStore;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchEngineTest {
+
+    private static List<String> search(String query) throws Exception {
+        List<String> found = new ArrayList<>();
+        SearchEngine.getSearchEngine().search(query, new SearchEngine.Results() {
+            public void found(List<MailStore.MessageInfo> messages) {
+                messages.forEach(m -> found.add(m.getFileName()));
+            }
+
+            public void done(int count) {
+            }
+        }).get();
+        return found;
+    }
+
+    // Waits for the store watcher and the indexer to catch up
+    private static List<String> awaitSearch(String query, List<String> expected) throws Exception {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        List<String> found = search(query);
+        while (!found.equals(expected) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            found = search(query);
+        }
+        return found;
+    }
+
+    @Test
+    void followsTheChangesOfUnopenedFolders() throws Exception {
+        Path dir = TestStore.root().resolve("search-engine");
+        Files.createDirectories(dir);
+        Files.writeString(dir.resolve("msg1.txt"), "subject=Quokka sighting\n");
+        Files.writeString(dir.resolve("msg-list.txt"), "msg1.txt\n");
+        assertEquals(List.of("msg1.txt"), search("quokka"));
+
+        // Neither cached nor modeled, the folder is only watched
+        Files.writeString(dir.resolve("msg2.txt"), "subject=Another quokka\n");
+        Files.writeString(dir.resolve("msg-list.txt"), "msg1.txt\nmsg2.txt\n");
+        assertEquals(List.of("msg1.txt", "msg2.txt"),
+                     awaitSearch("quokka", List.of("msg1.txt", "msg2.txt")));
+
+        Files.writeString(dir.resolve("msg1.txt"), "subject=Wombat sighting\n");
+        assertEquals(List.of("msg1.txt"), awaitSearch("wombat", List.of("msg1.txt")));
+        assertEquals(List.of("msg2.txt"), search("quokka"));
+
+        Files.writeString(dir.resolve("msg-list.txt"), "msg1.txt\n");
+        assertEquals(List.of(), awaitSearch("quokka", List.of()));
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.search;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SearchIndexTest {
+
+    @TempDir
+    Path dir;
+
+    private static List<String> files(SearchIndex index, String... terms) {
+        List<String> files = new ArrayList<>();
+        for (int doc : index.query(List.of(terms))) {
+            files.add(index.folderOf(doc) + "/" + index.fileOf(doc));
+        }
+        return files;
+    }
+
+    private static SearchIndex sample() {
+        SearchIndex index = new SearchIndex();
+        index.add("inbox", "msg1.txt", List.of("jdk", "build", "failure"));
+        index.add("inbox", "msg2.txt", List.of("jdk", "review"));
+        index.add("lists/openjfx", "msg1.txt", List.of("javafx", "build"));
+        index.setFolderState("inbox", new SearchIndex.FolderState(1000, 42));
+        return index;
+    }
+
+    @Test
+    void writeThenRead() throws IOException {
+        Path file = dir.resolve(SearchIndex.INDEX_FILE);
+        sample().save(file);
+
+        SearchIndex read = SearchIndex.read(file);
+        assertEquals(3, read.documentCount());
+        assertEquals(List.of("inbox/msg1.txt", "lists/openjfx/msg1.txt"), files(read, "build"));
+        assertEquals(List.of("inbox/msg1.txt"), files(read, "jdk", "build"));
+        assertEquals(new SearchIndex.FolderState(1000, 42), read.folderState("inbox"));
+    }
+
+    @Test
+    void changesAreAppendedToTheJournal() throws IOException {
+        Path file = dir.resolve(SearchIndex.INDEX_FILE);
+        SearchIndex index = sample();
+        index.save(file);
+        long indexSize = Files.size(file);
+
+        index.delete("inbox", "msg2.txt");
+        index.add("inbox", "msg1.txt", List.of("jdk", "build", "fixed"));
+        index.add("inbox", "msg3.txt", List.of("jdk", "review"));
+        index.setFolderState("inbox", new SearchIndex.FolderState(2000, 84));
+        index.save(file);
+        assertEquals(indexSize, Files.size(file), "index file rewritten");
+
+        SearchIndex read = SearchIndex.read(file);
+        assertEquals(3, read.documentCount());
+        assertEquals(List.of("inbox/msg3.txt"), files(read, "review"));
+        assertEquals(List.of("inbox/msg1.txt"), files(read, "fixed"));
+        assertEquals(List.of(), files(read, "failure"));
+        assertEquals(new SearchIndex.FolderState(2000, 84), read.folderState("inbox"));
+
+        // Saved again without changes from the replayed index
+        read.save(file);
+        assertEquals(3, SearchIndex.read(file).documentCount());
+    }
+
+    @Test
+    void compactionRewritesTheIndex() throws IOException {
+        Path file = dir.resolve(SearchIndex.INDEX_FILE);
+        SearchIndex index = sample();
+        index.save(file);
+
+        index.delete("inbox", "msg1.txt");
+        index.delete("inbox", "msg2.txt");
+        index.save(file);
+        assertEquals(4 + 8, Files.size(SearchIndex.journalFile(file)), "journal not restarted");
+
+        SearchIndex read = SearchIndex.read(file);
+        assertEquals(1, read.documentCount());
+        assertEquals(List.of("lists/openjfx/msg1.txt"), files(read, "build"));
+        assertEquals(List.of(), files(read, "jdk"));
+    }
+
+    @Test
+    void truncatedJournalKeepsCompleteRecords() throws IOException {
+        Path file = dir.resolve(SearchIndex.INDEX_FILE);
+        SearchIndex index = sample();
+        index.save(file);
+        index.add("inbox", "msg3.txt", List.of("jdk", "review"));
+        index.save(file);
+        index.add("inbox", "msg4.txt", List.of("jdk", "review"));
+        index.save(file);
+
+        // Cut the last record short, as a crash while appending would
+        Path journal = SearchIndex.journalFile(file);
+        byte[] bytes = Files.readAllBytes(journal);
+        Files.write(journal, Arrays.copyOf(bytes, bytes.length - 3));
+
+        SearchIndex read = SearchIndex.read(file);
+        assertEquals(List.of("inbox/msg2.txt", "inbox/msg3.txt"), files(read, "review"));
+
+        // Changes made after the torn record are not lost
+        read.add("inbox", "msg5.txt", List.of("jdk", "review"));
+        read.save(file);
+        assertEquals(List.of("inbox/msg2.txt", "inbox/msg3.txt", "inbox/msg5.txt"),
+                     files(SearchIndex.read(file), "review"));
+    }
+
+    @Test
+    void journalOfAnotherGenerationIsIgnored() throws IOException {
+        Path file = dir.resolve(SearchIndex.INDEX_FILE);
+        SearchIndex index = sample();
+        index.save(file);
+        index.delete("inbox", "msg2.txt");
+        index.save(file);
+        byte[] journal = Files.readAllBytes(SearchIndex.journalFile(file));
+
+        // A journal left behind when the index was rewritten
+        index.add("inbox", "msg2.txt", List.of("jdk", "review"));
+        index.write(file);
+        Files.write(SearchIndex.journalFile(file), journal, StandardOpenOption.TRUNCATE_EXISTING);
+
+        SearchIndex read = SearchIndex.read(file);
+        assertEquals(List.of("inbox/msg2.txt"), files(read, "review"));
+        assertEquals(3, read.documentCount());
+
+        read.add("inbox", "msg3.txt", List.of("jdk", "review"));
+        read.save(file);
+        assertEquals(List.of("inbox/msg2.txt", "inbox/msg3.txt"),
+                     files(SearchIndex.read(file), "review"));
+    }
+}
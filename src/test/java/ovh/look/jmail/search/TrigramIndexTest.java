@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.search;
+
+import org.junit.jupiter.api.Test;
+import ovh.look.jmail.MailStore;
+import ovh.look.jmail.TestMessages;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrigramIndexTest {
+
+    private static MailStore.MessageInfo message(int i, String subject) {
+        return TestMessages.message("inbox", "msg" + i + ".txt", "user" + i + "@openjdk.org",
+                "kcr@openjdk.org", "", subject);
+    }
+
+    private static List<String> files(List<MailStore.MessageInfo> infos) {
+        return infos.stream().map(MailStore.MessageInfo::getFileName).toList();
+    }
+
+    private static TrigramIndex index(String... subjects) {
+        TrigramIndex index = new TrigramIndex();
+        for (int i = 0; i < subjects.length; i++) {
+            index.add("inbox", "msg" + i + ".txt", message(i, subjects[i]));
+        }
+        return index;
+    }
+
+    @Test
+    void substring() {
+        TrigramIndex index = index("JavaFX release", "Swing fonts", "Accessibility in JavaFX");
+        assertEquals(List.of("msg0.txt", "msg2.txt"), files(index.substring("javafx")));
+        assertEquals(List.of("msg1.txt"), files(index.substring("user1@open")));
+        assertEquals(List.of(), files(index.substring("fx release notes")));
+        // Shorter than a trigram
+        assertEquals(List.of("msg1.txt"), files(index.substring("sw")));
+    }
+
+    @Test
+    void fuzzy() {
+        TrigramIndex index = index("JavaFX release", "Swing fonts", "Accessibility in JavaFX");
+        assertEquals(List.of("msg2.txt"), files(index.fuzzy("acessibility", 1)));
+        assertEquals(List.of(), files(index.fuzzy("acesibility", 1)));
+        assertEquals(List.of("msg2.txt"), files(index.fuzzy("acesibility", 2)));
+    }
+
+    @Test
+    void removedAndUpdatedMessages() {
+        TrigramIndex index = index("JavaFX release", "Swing fonts", "Accessibility in JavaFX");
+        index.remove("inbox", "msg0.txt");
+        assertEquals(List.of("msg2.txt"), files(index.substring("javafx")));
+        index.add("inbox", "msg2.txt", message(2, "Printing"));
+        assertEquals(List.of(), files(index.substring("javafx")));
+        assertEquals(List.of("msg2.txt"), files(index.substring("printing")));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    void compactsRemovedRows() {
+        TrigramIndex index = new TrigramIndex();
+        for (int i = 0; i < 100; i++) {
+            index.add("inbox", "msg" + i + ".txt", message(i, "subject " + i));
+        }
+        for (int i = 0; i < 90; i++) {
+            index.remove("inbox", "msg" + i + ".txt");
+        }
+        assertEquals(10, index.size());
+        assertTrue(index.rowCount() < 20, "rows " + index.rowCount());
+        assertEquals(List.of("msg95.txt"), files(index.substring("subject 95")));
+        index.remove("inbox", "msg95.txt");
+        index.add("inbox", "msg200.txt", message(200, "subject 95"));
+        assertEquals(List.of("msg200.txt"), files(index.substring("subject 95")));
+    }
+}
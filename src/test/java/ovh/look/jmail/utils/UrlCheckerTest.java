@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2022, Oracle and/or its affiliates. All rights reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ *
+ * Please contact Oracle, 500 Oracle Parkway, Redwood Shores, CA 94065 USA
+ * or visit www.oracle.com if you need additional information or have any
+ * questions.
+ */
+
+package ovh.look.jmail.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UrlCheckerTest {
+
+    private HttpServer server;
+    private String base;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicLong now = new AtomicLong();
+    private UrlChecker checker;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/ok", e -> reply(e, 200));
+        server.createContext("/missing", e -> reply(e, 404));
+        // Refuses HEAD, serves GET
+        server.createContext("/nohead", e -> reply(e, e.getRequestMethod().equals("HEAD") ? 405 : 206));
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+        checker = new UrlChecker(Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(60), now::get);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    private void reply(HttpExchange e, int status) throws IOException {
+        requests.incrementAndGet();
+        e.sendResponseHeaders(status, -1);
+        e.close();
+    }
+
+    private boolean check(String url) throws Exception {
+        return checker.check(url).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void reachable() throws Exception {
+        assertTrue(check(base + "/ok"));
+        assertFalse(check(base + "/missing"));
+    }
+
+    @Test
+    void fallsBackToGetWhenHeadIsRefused() throws Exception {
+        assertTrue(check(base + "/nohead"));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void resultsAreCachedUntilTheyExpire() throws Exception {
+        assertTrue(check(base + "/ok"));
+        assertTrue(check(base + "/ok"));
+        assertEquals(1, requests.get());
+        now.addAndGet(Duration.ofSeconds(61).toNanos());
+        assertTrue(check(base + "/ok"));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void cachedResultsAreReadWithoutChecking() throws Exception {
+        String url = base + "/ok";
+        assertNull(checker.cached(url));
+        assertTrue(check(url));
+        assertEquals(Boolean.TRUE, checker.cached(url));
+        now.addAndGet(Duration.ofSeconds(61).toNanos());
+        assertNull(checker.cached(url));
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    void invalidUrlDoesNotBlockLaterChecks() throws Exception {
+        String url = "http://bad host/with spaces";
+        assertFalse(check(url));
+        now.addAndGet(Duration.ofSeconds(61).toNanos());
+        assertFalse(check(url));
+    }
+
+    @Test
+    void otherSchemes() throws Exception {
+        assertFalse(check("file:/does/not/exist"));
+        assertFalse(check("not a url at all"));
+    }
+}